@@ -0,0 +1,53 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Egy eladási sor kódolása: a régi szöveges összefűzés és a {@link SalesRowEncoder}.
+ * Futtatás: {@code gradlew jmh}, a lefoglalt memóriához {@code -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SalesRowEncoderBenchmark {
+
+    private final SalesRowEncoder encoder = new SalesRowEncoder();
+    private final Sale.BillID billID = new Sale.PeriodBillID(1234);
+    private final String productName = "Túró Rudi natúr";
+    private final String seller = "Kovács Éva";
+    private Instant timestamp;
+    private int paymentID;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        timestamp = Instant.parse("2022-03-12T15:16:24.899520800Z");
+        paymentID = 1;
+    }
+
+    @Benchmark
+    public ByteBuffer stringConcat() {
+        LocalDateTime t = LocalDateTime.ofInstant(timestamp, ZoneId.systemDefault());
+        String row = t + "\t" + productName + "\t" + 2 + "\t" + 180 + "\t" + seller + "\t" + billID +
+                "\t-" + "\t" + paymentID++ + "\n";
+        return ByteBuffer.wrap(row.getBytes(UTF_8));
+    }
+
+    @Benchmark
+    public ByteBuffer encoder() {
+        encoder.clear();
+        encoder.row(timestamp, productName, 2, 180, seller, billID, -1, paymentID++, null);
+        return encoder.encoded();
+    }
+}
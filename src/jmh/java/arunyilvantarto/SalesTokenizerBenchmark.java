@@ -0,0 +1,118 @@
+package arunyilvantarto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Egy több száz megabájtos sales.tsv feldarabolása mezőkre: a régi, karakterenként olvasó {@link Reader}-es ciklus,
+ * a {@link SalesRow} bájtonként, és a {@link SalesRow} a {@link SalesVectorScanner}-rel. Az utóbbi külön JVM-ben fut a
+ * jdk.incubator.vector modullal, a többi anélkül. Futtatás: {@code gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SalesTokenizerBenchmark {
+
+    private static final String[] PRODUCTS = {"Túró Rudi natúr", "Pöttyös Guru", "Sport szelet", "Ásványvíz 0,5l",
+            "Kávé", "Pogácsa", "Bounty", "Nyalóka"};
+    private static final String[] SELLERS = {"Kovács Éva", "Nagy Péter", "Szabó Anna"};
+
+    @Param("300")
+    public int megabytes;
+
+    private Path file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("sales", ".tsv");
+        Random random = new Random(0);
+        LocalDateTime t = LocalDateTime.of(2020, 1, 1, 8, 0);
+        int periodID = 0, paymentID = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, UTF_8)) {
+            out.write("Időpont\tTermék\tMennyiség\tÁr\tEladó\tSzámla\tBankkártya\tFizetés\tMegjegyzés\n");
+            while (Files.size(file) < (long) megabytes << 20) {
+                for (int n = 0; n < 10000; n++) {
+                    String seller = SELLERS[random.nextInt(SELLERS.length)];
+                    if (n % 50 == 0) {
+                        t = t.plusHours(1);
+                        out.write(t + "\tNYITÁS\t-10000\t1\t" + seller + "\t" + ++periodID + "\t0\t-\n");
+                    }
+                    t = t.plusSeconds(random.nextInt(60));
+                    out.write(t + "\t" + PRODUCTS[random.nextInt(PRODUCTS.length)] + "\t" + (1 + random.nextInt(3)) +
+                            "\t" + (100 + random.nextInt(400)) + "\t" + seller + "\t" + periodID + "\t-\t" +
+                            ++paymentID + "\n");
+                }
+                out.flush();
+            }
+        }
+        channel = FileChannel.open(file);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.delete(file);
+    }
+
+    /**
+     * A régi olvasás ciklusa, a mezők String-gé alakítása nélkül.
+     */
+    @Benchmark
+    public long reader() throws IOException {
+        Reader reader = Channels.newReader(channel.position(0), UTF_8);
+        long columns = 0;
+        int length = 0;
+        for (int ch; (ch = reader.read()) != -1; ) {
+            if (ch == '\t' || ch == '\n') {
+                if (length != 0)
+                    columns++;
+                length = 0;
+            } else {
+                length++;
+            }
+        }
+        return columns;
+    }
+
+    @Benchmark
+    public long scalar() throws IOException {
+        return salesRow();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsPrepend = {"--add-modules", "jdk.incubator.vector", "-Darunyilvantarto.vectorTokenizer=true"})
+    public long vector() throws IOException {
+        if (!SalesRow.VECTORIZED)
+            throw new IllegalStateException("jdk.incubator.vector not loaded");
+        return salesRow();
+    }
+
+    private long salesRow() throws IOException {
+        SalesRow row = new SalesRow();
+        long columns = 0;
+        for (int position = 0; position != -1; ) {
+            position = row.parse(buffer, position, buffer.limit());
+            columns += row.columns;
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,21 @@
+package arunyilvantarto;
+
+/**
+ * Olyan visitor, aminek az eredménye nem függ a sorok sorrendjétől, ezért a fájl darabjait külön példányok
+ * dolgozhatják fel párhuzamosan, és az eredményeik utólag összevonhatók.
+ *
+ * @see SalesIO#readCombining(CombinableSalesVisitor)
+ */
+public interface CombinableSalesVisitor<V extends CombinableSalesVisitor<V>> extends SalesVisitor {
+
+    /**
+     * @return egy új, üres példány ugyanebből a visitorból; erre nem hívódik {@code begin()} és {@code end()}
+     */
+    V fork();
+
+    /**
+     * Hozzáveszi ehhez a példányhoz egy {@link #fork()}-kal létrehozott példány eredményét. A darabok a fájlbeli
+     * sorrendjükben vonódnak össze.
+     */
+    void combine(V other);
+}
@@ -1,11 +1,10 @@
 package arunyilvantarto;
 
 import arunyilvantarto.domain.*;
-import arunyilvantarto.events.AdminOperation;
-import arunyilvantarto.events.InventoryEvent;
-import arunyilvantarto.events.SellingEvent;
+import arunyilvantarto.events.*;
 import arunyilvantarto.ui.AdminPage;
 import arunyilvantarto.ui.LoginForm;
+import arunyilvantarto.ui.SearchIndex;
 import arunyilvantarto.ui.SellingTab;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
@@ -27,20 +26,46 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.StandardOpenOption.*;
 
 public class Main extends Application {
 
     public static final String SALES_TSV_NAME = "sales.tsv";
+    public static final String SALES_CHECKPOINT_NAME = "sales.state";
+    public static final String SALES_MANIFEST_NAME = "sales.manifest";
+    public static final String SALES_TIME_INDEX_NAME = "sales.idx";
+    public static final String SALES_ARTICLE_INDEX_NAME = "sales.articles";
+    public static final String SALES_AGGREGATES_NAME = "sales.aggregates";
+    public static final WritePolicy SALES_WRITE_POLICY =
+            WritePolicy.parse(System.getProperty("arunyilvantarto.salesWritePolicy", "group"));
+    // heap, direct, disk vagy auto; utóbbi kis heapnél (pl. -Xmx256m a kasszagépeken) a heapen kívül tartja a régi
+    // eladásokat, a disk pedig csak a fájlban, ahonnan a bevétel fül periódusonként olvassa be
+    public static final SalesLedger.History SALES_HISTORY =
+            switch (System.getProperty("arunyilvantarto.salesHistory", "auto")) {
+                case "heap" -> SalesLedger.History.HEAP;
+                case "direct" -> SalesLedger.History.DIRECT;
+                case "disk" -> SalesLedger.History.ON_DISK;
+                case "auto" -> Runtime.getRuntime().maxMemory() <= 512L << 20 ?
+                        SalesLedger.History.DIRECT : SalesLedger.History.HEAP;
+                default -> throw new IllegalArgumentException("invalid sales history storage: " +
+                        System.getProperty("arunyilvantarto.salesHistory"));
+            };
     public volatile DataRoot dataRoot;
     public SellingPeriod currentSellingPeriod;
     private OperationListener rootListener;
     public volatile User logonUser;
     public SalesIO salesIO;
+    public final SalesLedger salesLedger = new SalesLedger(SALES_HISTORY);
+    public final SearchIndex<Article> articleSearchIndex =
+            new SearchIndex<>(a -> a.barCode == null ? List.of(a.name) : List.of(a.name, a.barCode));
+    public final SearchIndex<User> userSearchIndex = new SearchIndex<>(u -> List.of(u.name));
 
     public final ExecutorService executor = Executors.newSingleThreadExecutor();
 
@@ -70,20 +95,59 @@ public class Main extends Application {
     @Override
     public void init() throws Exception {
         dataRoot = JSON_MAPPER.readValue(Files.readAllBytes(Path.of("data.json")), DataRoot.class);
+        articleSearchIndex.addAll(dataRoot.articles);
+        userSearchIndex.addAll(dataRoot.users);
 
         final Path tsvPath = salesTsvPath();
         if (Files.isRegularFile(tsvPath))
-            salesIO = new SalesIO(dataRoot, FileChannel.open(tsvPath, READ, WRITE));
+            salesIO = new SalesIO(dataRoot, tsvPath, FileChannel.open(tsvPath, READ, WRITE), salesCheckpointPath(),
+                    salesManifestPath(), salesTimeIndexPath(), salesArticleIndexPath(), salesAggregatesPath(),
+                    SALES_WRITE_POLICY);
         else {
-            salesIO = new SalesIO(dataRoot, FileChannel.open(tsvPath, READ, WRITE, CREATE_NEW));
+            salesIO = new SalesIO(dataRoot, tsvPath, FileChannel.open(tsvPath, READ, WRITE, CREATE_NEW),
+                    salesCheckpointPath(), salesManifestPath(), salesTimeIndexPath(), salesArticleIndexPath(),
+                    salesAggregatesPath(), SALES_WRITE_POLICY);
             salesIO.begin();
         }
+        executor.execute(this::loadSalesLedger);
+        executor.execute(() -> salesIO.compact());
+    }
+
+    /**
+     * (Újra)beolvassa a sales.tsv-t a {@link #salesLedger}-be; ha nem sikerül, hibaüzenetet mutat.
+     */
+    public void loadSalesLedger() {
+        try {
+            salesLedger.load(salesIO);
+        } catch (RuntimeException e) {
+            showError("Nem sikerült beolvasni az eladásokat", e);
+        }
     }
 
     public Path salesTsvPath() {
         return Path.of(SALES_TSV_NAME);
     }
 
+    public Path salesCheckpointPath() {
+        return Path.of(SALES_CHECKPOINT_NAME);
+    }
+
+    public Path salesManifestPath() {
+        return Path.of(SALES_MANIFEST_NAME);
+    }
+
+    public Path salesTimeIndexPath() {
+        return Path.of(SALES_TIME_INDEX_NAME);
+    }
+
+    public Path salesArticleIndexPath() {
+        return Path.of(SALES_ARTICLE_INDEX_NAME);
+    }
+
+    public Path salesAggregatesPath() {
+        return Path.of(SALES_AGGREGATES_NAME);
+    }
+
     @Override
     public void start(Stage primaryStage) throws Exception {
         PlatformDefaults.setRelatedGap(new UnitValue(12), new UnitValue(12));
@@ -128,6 +192,13 @@ public class Main extends Application {
         }
     }
 
+    @Override
+    public void stop() throws Exception {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        salesIO.close();
+    }
+
     private static DataRoot makeSampleData() {
         DataRoot data = new DataRoot();
 
@@ -167,17 +238,33 @@ public class Main extends Application {
         });
     }
 
-    public void onEvent(InventoryEvent event) {
+    /**
+     * @return eladási eseménynél akkor teljesül, amikor a sales.tsv-be írt sor az írási szabály szerint elmentettnek
+     * számít
+     */
+    public CompletableFuture<Void> onEvent(InventoryEvent event) {
         try {
             System.out.println(JSON_MAPPER.writeValueAsString(event));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
-        switch (event) {
-            case AdminOperation op -> op.execute(dataRoot, this);
-            case SellingEvent sellingEvent -> salesIO.writeEvent(sellingEvent);
-        }
+        CompletableFuture<Void> persisted = switch (event) {
+            case AdminOperation op -> {
+                op.execute(dataRoot, this);
+                updateSearchIndexes(op);
+                yield CompletableFuture.completedFuture(null);
+            }
+            case SellingEvent sellingEvent -> {
+                CompletableFuture<Void> written = salesLedger.write(salesIO, sellingEvent).whenComplete((v, e) -> {
+                    if (e != null)
+                        showSaveError(e);
+                });
+                if (sellingEvent instanceof SellingEvent.EndPeriodEvent)
+                    executor.execute(() -> salesIO.compact());
+                yield written;
+            }
+        };
 
         if (rootListener != null)
             rootListener.onEvent(event);
@@ -187,24 +274,47 @@ public class Main extends Application {
                 executor.execute(this::writeDataToFile);
             else
                 writeDataToFile();
+        return persisted;
+    }
+
+    private void updateSearchIndexes(AdminOperation op) {
+        if (op instanceof AddArticleOp addArticleOp)
+            articleSearchIndex.add(addArticleOp.article);
+        else if (op instanceof DeleteArticleOp deleteArticleOp)
+            articleSearchIndex.remove(deleteArticleOp.article);
+        else if (op instanceof ChangeArticleOp changeArticleOp &&
+                changeArticleOp.property == ChangeArticleOp.ArticleProperty.BARCODE)
+            articleSearchIndex.update(dataRoot.article(changeArticleOp.articleID));
+        else if (op instanceof AddUserOp addUserOp)
+            userSearchIndex.add(addUserOp.user);
+        else if (op instanceof RenameUserOp renameUserOp)
+            userSearchIndex.update(dataRoot.user(renameUserOp.newName));
     }
 
     private void writeDataToFile() {
         try {
             Files.write(Path.of("data.json"), JSON_WRITER.writeValueAsBytes(dataRoot));
         } catch (Throwable e) {
-            e.printStackTrace();
-
-            Platform.runLater(() -> {
-                Alert alert = new Alert(Alert.AlertType.ERROR);
-                alert.setTitle("Hiba");
-                alert.setHeaderText("Nem sikerült elmenteni a változtatást");
-                alert.setContentText(e.toString());
-                alert.showAndWait();
-            });
+            showSaveError(e);
         }
     }
 
+    private void showSaveError(Throwable e) {
+        showError("Nem sikerült elmenteni a változtatást", e);
+    }
+
+    private void showError(String header, Throwable e) {
+        e.printStackTrace();
+
+        Platform.runLater(() -> {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Hiba");
+            alert.setHeaderText(header);
+            alert.setContentText(e.toString());
+            alert.showAndWait();
+        });
+    }
+
     public Object activePage() {
         return rootListener;
     }
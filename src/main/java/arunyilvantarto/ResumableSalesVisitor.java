@@ -0,0 +1,31 @@
+package arunyilvantarto;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Olyan összesítő visitor, aminek az állapota elmenthető, így a következő olvasás a mentett állapotból folytatható,
+ * és csak az azóta írt sorokat kell feldolgozni.
+ *
+ * @see SalesIO#readResumable(java.util.function.Supplier)
+ */
+public interface ResumableSalesVisitor extends SalesVisitor {
+
+    /**
+     * A mentett állapot kulcsa: a visitor típusa és a paraméterei, és ha az állapot formátuma változik, egy
+     * verziószám. Fájlnévként használjuk, ezért csak betűkből, számokból, pontból, kötőjelből és aláhúzásból állhat.
+     */
+    String cacheKey();
+
+    /**
+     * Kiírja az eddig beolvasott sorokból összesített állapotot.
+     */
+    void save(DataOutputStream out) throws IOException;
+
+    /**
+     * Visszatölti a {@link #save}-vel kiírt állapotot. Csak egy új, még semmit nem kapott példányon hívódik; ha
+     * kivételt dob, a példányt eldobjuk, és egy újjal elölről olvasunk.
+     */
+    void restore(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,77 @@
+package arunyilvantarto;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Egy {@link ResumableSalesVisitor} elmentett állapota, és hogy a sales.tsv mekkora elejét fedi le. Hogy még
+ * ugyanahhoz a fájlhoz tartozik-e (átnevezéskor a sales.tsv újraíródik), azt a generációból, a fájlazonosítóból és a
+ * lefedett rész utolsó sorának CRC32-jéből látjuk, mint a {@link SalesManifest}-nél.
+ */
+final class SalesAggregateSnapshot {
+
+    private static final int MAGIC = 0x41524132;
+
+    /**
+     * A sales.tsv fájlazonosítója, vagy üres, ha nem ismert.
+     */
+    String fileKey = "";
+
+    /**
+     * A sales.tsv generációja, lásd {@link SalesCheckpoint#generation}.
+     */
+    long generation;
+
+    /**
+     * Eddig a bájtpozícióig (kizárólag) vannak benne a sales.tsv sorai; itt nincs nyitott periódus.
+     */
+    long offset;
+
+    /**
+     * Az {@link #offset}-nél végződő sor CRC32-je.
+     */
+    int lastLineChecksum;
+
+    byte[] state;
+
+    /**
+     * @return a beolvasott állapot, vagy null, ha nincs ilyen fájl, vagy nem ismert formátumú
+     */
+    static SalesAggregateSnapshot load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                return null;
+
+            SalesAggregateSnapshot s = new SalesAggregateSnapshot();
+            s.fileKey = in.readUTF();
+            s.generation = in.readLong();
+            s.offset = in.readLong();
+            s.lastLineChecksum = in.readInt();
+            s.state = new byte[in.readInt()];
+            in.readFully(s.state);
+            return s;
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    void save(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(fileKey);
+            out.writeLong(generation);
+            out.writeLong(offset);
+            out.writeInt(lastLineChecksum);
+            out.writeInt(state.length);
+            out.write(state);
+        }
+        Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
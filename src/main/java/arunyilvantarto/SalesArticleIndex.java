@@ -0,0 +1,195 @@
+package arunyilvantarto;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Termékenkénti index a sales.tsv-hez: terméknév -> az eladási sorainak bájtpozíciói, sorrendben. Így egy termék
+ * eladásaihoz csak a saját sorait kell beolvasni.
+ * <p>
+ * A mellékfájlhoz minden mentés egy blokkot fűz az addig nem mentett sorokkal. A blokk végén ott van, meddig fedi le
+ * a sales.tsv-t, és az ott végződő sor CRC32-je (mint a {@link SalesCheckpoint}-nál), utána a blokk saját CRC32-je;
+ * betöltéskor az első nem stimmelő blokktól eldobjuk a többit, és az egészet, ha a fejlécben lévő generáció nem a
+ * sales.tsv mostani generációja (lásd {@link SalesCheckpoint#generation}). Hogy ne legyen minden olvasás után egy
+ * apró blokk, a {@link #saveIfDue} csak legalább {@link #SAVE_ROWS} új sor után ment; a többit a {@link #save} a
+ * sales.tsv lezárásakor vagy tömörítésekor írja ki, és ha elmarad, a következő betöltés után újra beolvassuk.
+ */
+final class SalesArticleIndex {
+
+    private static final int MAGIC = 0x41524932;
+    // ennyi nem mentett sor után ment a saveIfDue
+    static final int SAVE_ROWS = 4096;
+
+    private final Path path;
+    private final long generation;
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    // a legutóbbi mentés óta hozzáadott sorok, sorrendben
+    private final Map<String, Postings> unsaved = new LinkedHashMap<>();
+    private int unsavedRows;
+    // a fájlt újra kell írni, mert a vége sérült vagy nem ehhez a sales.tsv-hez tartozik
+    private boolean rewrite = true;
+
+    /**
+     * Eddig a bájtpozícióig (kizárólag) vannak benne a sales.tsv sorai.
+     */
+    int indexedOffset;
+
+    private SalesArticleIndex(Path path, long generation) {
+        this.path = path;
+        this.generation = generation;
+    }
+
+    /**
+     * @param generation a sales.tsv mostani generációja
+     * @return a mentett index érvényes része; ha nincs ilyen fájl, vagy másik generációhoz tartozik, üres index
+     */
+    static SalesArticleIndex load(Path path, ByteBuffer tsv, long generation) throws IOException {
+        SalesArticleIndex index = new SalesArticleIndex(path, generation);
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 65536), crc))) {
+            if (in.readInt() != MAGIC || in.readLong() != generation)
+                return index;
+            while (in.available() > 0) {
+                crc.reset();
+                Map<String, Postings> block = new HashMap<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    Postings p = block.computeIfAbsent(in.readUTF(), k -> new Postings());
+                    int offset = 0;
+                    for (long n = SalesSegment.readVarLong(in); n > 0; n--)
+                        p.add(offset += (int) SalesSegment.readVarLong(in));
+                }
+                int end = in.readInt();
+                int lastLineChecksum = in.readInt();
+                int checksum = (int) crc.getValue();
+                if (in.readInt() != checksum || end <= index.indexedOffset || end > tsv.limit() ||
+                        SalesIO.lastLineChecksum(tsv, end) != lastLineChecksum)
+                    return index;
+
+                block.forEach((name, p) -> index.postings.computeIfAbsent(name, k -> new Postings()).addAll(p));
+                index.indexedOffset = end;
+            }
+            index.rewrite = false;
+            return index;
+        } catch (NoSuchFileException | EOFException e) {
+            return index;
+        }
+    }
+
+    /**
+     * A sales.tsv következő sora, sorrendben, az {@link #indexedOffset}-től kezdve.
+     */
+    void add(SalesRow row, int offset) {
+        if (row.is(1, SalesIO.PERIOD_OPEN_PRODUCT_NAME_BYTES) ||
+                row.is(1, SalesIO.PERIOD_CLOSE_PRODUCT_NAME_BYTES) ||
+                row.is(1, SalesIO.MODIFY_CASH_PRODUCT_NAME_BYTES) ||
+                row.is(1, SalesIO.STAFF_BILL_PAY_PRODUCT_NAME_BYTES))
+            return;
+        String name = row.name(1);
+        postings.computeIfAbsent(name, k -> new Postings()).add(offset);
+        unsaved.computeIfAbsent(name, k -> new Postings()).add(offset);
+        unsavedRows++;
+    }
+
+    /**
+     * @return a termék eladási sorainak bájtpozíciói, sorrendben
+     */
+    int[] offsets(String articleName) {
+        return offsets(articleName, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return a termék eladási sorainak bájtpozíciói a [from, to) tartományban, sorrendben
+     */
+    int[] offsets(String articleName, int from, int to) {
+        Postings p = postings.get(articleName);
+        if (p == null)
+            return new int[0];
+        int start = Arrays.binarySearch(p.offsets, 0, p.size, from);
+        int end = Arrays.binarySearch(p.offsets, 0, p.size, to);
+        start = start < 0 ? -start - 1 : start;
+        end = end < 0 ? -end - 1 : end;
+        return Arrays.copyOfRange(p.offsets, start, Math.max(start, end));
+    }
+
+    /**
+     * Mint a {@link #save}, de csak ha a fájlt újra kell írni, vagy legalább {@link #SAVE_ROWS} sor nincs még mentve.
+     */
+    void saveIfDue(ByteBuffer tsv) throws IOException {
+        if (rewrite || unsavedRows >= SAVE_ROWS)
+            save(tsv);
+    }
+
+    /**
+     * Kiírja a még nem mentett sorokat egy új blokkba; ha betöltéskor hibás volt a fájl, az egészet újraírja.
+     */
+    void save(ByteBuffer tsv) throws IOException {
+        if (!rewrite && unsaved.isEmpty())
+            return;
+        if (rewrite) {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeLong(generation);
+                writeBlock(out, postings, tsv);
+            }
+            Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        } else {
+            try (OutputStream out = Files.newOutputStream(path, CREATE, APPEND)) {
+                writeBlock(out, unsaved, tsv);
+            }
+        }
+        unsaved.clear();
+        unsavedRows = 0;
+        rewrite = false;
+    }
+
+    private void writeBlock(OutputStream stream, Map<String, Postings> block, ByteBuffer tsv) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, 65536), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(block.size());
+        for (Map.Entry<String, Postings> e : block.entrySet()) {
+            out.writeUTF(e.getKey());
+            Postings p = e.getValue();
+            SalesSegment.writeVarLong(out, p.size);
+            for (int i = 0; i < p.size; i++)
+                SalesSegment.writeVarLong(out, p.offsets[i] - (i == 0 ? 0 : p.offsets[i - 1]));
+        }
+        out.writeInt(indexedOffset);
+        out.writeInt(SalesIO.lastLineChecksum(tsv, indexedOffset));
+        out.flush();
+        out.writeInt((int) checked.getChecksum().getValue());
+        out.flush();
+    }
+
+    private static final class Postings {
+
+        int[] offsets = new int[4];
+        int size;
+
+        void add(int offset) {
+            if (size == offsets.length)
+                offsets = Arrays.copyOf(offsets, size * 2);
+            offsets[size++] = offset;
+        }
+
+        void addAll(Postings p) {
+            for (int i = 0; i < p.size; i++)
+                add(p.offsets[i]);
+        }
+    }
+}
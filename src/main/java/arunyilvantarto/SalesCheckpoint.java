@@ -0,0 +1,114 @@
+package arunyilvantarto;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A kassza futó állapota a sales.tsv egy adott bájtpozíciójáig. Egy kis mellékfájlba mentjük, hogy induláskor
+ * csak az utána írt sorokat kelljen beolvasni.
+ */
+public class SalesCheckpoint {
+
+    private static final int MAGIC = 0x41524332;
+
+    /**
+     * A sales.tsv fájlazonosítója, vagy üres, ha nem ismert.
+     */
+    public String fileKey = "";
+
+    /**
+     * A sales.tsv ezen példányának azonosítója: a többi mellékfájl ezzel jelöli, melyik fájlhoz készült. Új értéket
+     * kap, amikor a mentett állapot nem a mostani fájlhoz tartozik, vagy nincs mentett állapot.
+     */
+    public long generation;
+
+    /**
+     * Eddig a bájtpozícióig (kizárólag) van benne a fájl tartalma az állapotban.
+     */
+    public long offset;
+
+    /**
+     * Az {@link #offset} előtti utolsó sor CRC32-je, ebből látjuk, hogy a mellékfájl ugyanahhoz a fájlhoz tartozik-e.
+     */
+    public int lastLineChecksum;
+
+    public int cash, creditCardAmount;
+    public int lastPeriodID;
+    public boolean periodOpen;
+
+    /**
+     * Az utolsó periódus NYITÁS sorának bájtpozíciója.
+     */
+    public long lastPeriodOffset;
+
+    public int lastPaymentID;
+
+    void periodOpened(int periodID, long rowOffset) {
+        lastPeriodID = periodID;
+        lastPeriodOffset = rowOffset;
+        periodOpen = true;
+    }
+
+    void periodClosed(int closeCash, int closeCreditCardAmount) {
+        cash = closeCash;
+        creditCardAmount = closeCreditCardAmount;
+        periodOpen = false;
+    }
+
+    void cashModified(int cash, int creditCardAmount) {
+        this.cash = cash;
+        this.creditCardAmount = creditCardAmount;
+    }
+
+    void paid(int paymentID) {
+        lastPaymentID = Math.max(lastPaymentID, paymentID);
+    }
+
+    /**
+     * @return a beolvasott állapot, vagy null, ha nincs ilyen fájl, vagy nem ismert formátumú
+     */
+    static SalesCheckpoint load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                return null;
+
+            SalesCheckpoint c = new SalesCheckpoint();
+            c.fileKey = in.readUTF();
+            c.generation = in.readLong();
+            c.offset = in.readLong();
+            c.lastLineChecksum = in.readInt();
+            c.cash = in.readInt();
+            c.creditCardAmount = in.readInt();
+            c.lastPeriodID = in.readInt();
+            c.periodOpen = in.readBoolean();
+            c.lastPeriodOffset = in.readLong();
+            c.lastPaymentID = in.readInt();
+            return c;
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    void save(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(fileKey);
+            out.writeLong(generation);
+            out.writeLong(offset);
+            out.writeInt(lastLineChecksum);
+            out.writeInt(cash);
+            out.writeInt(creditCardAmount);
+            out.writeInt(lastPeriodID);
+            out.writeBoolean(periodOpen);
+            out.writeLong(lastPeriodOffset);
+            out.writeInt(lastPaymentID);
+        }
+        Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,341 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Article;
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Eladási sorok oszloponként tárolva: egy sor néhány tömbelem a {@link Sale} objektum és a hozzá tartozó
+ * {@link Instant} helyett. A termék, az eladó és a számlaazonosító szótárkódolt. Az oszlopok tömbökben vagy a
+ * heapen kívül, egy direkt pufferben vannak; utóbbinál a történet hossza nem növeli a szemétgyűjtő munkáját. Sort
+ * csak hozzáfűzni lehet, így egy már elkért {@link Cursor} a későbbi hozzáfűzésektől függetlenül, másik szálon is
+ * olvasható. Az {@link #add} nem szálbiztos.
+ */
+public class SalesColumns {
+
+    private static final long NANOS_PER_SECOND = 1000_000_000L;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // az int oszlopok
+    private static final int PRICE = 0, QUANTITY = 1, PAYMENT_ID = 2, PERIOD_ID = 3, ARTICLE = 4, SELLER = 5, BILL = 6;
+    private static final int INT_COLUMNS = 7;
+
+    private Storage storage;
+    private int size;
+
+    private final Dictionary<Article> articleDictionary = new Dictionary<>(Article.class);
+    private final Dictionary<String> sellerDictionary = new Dictionary<>(String.class);
+    private final Dictionary<Sale.BillID> billDictionary = new Dictionary<>(Sale.BillID.class);
+
+    // periódusazonosító -> az első sora és az utolsó utáni sor
+    private final Map<Integer, int[]> periodRows = new HashMap<>();
+
+    public SalesColumns() {
+        this(false);
+    }
+
+    /**
+     * @param offHeap az oszlopok direkt pufferbe kerüljenek-e tömbök helyett
+     */
+    public SalesColumns(boolean offHeap) {
+        storage = offHeap ? new DirectStorage(INITIAL_CAPACITY) : new HeapStorage(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param periodID a periódus, amiben az eladás történt
+     */
+    public void add(Sale sale, int periodID) {
+        if (size == storage.capacity())
+            storage = storage.grow(size);
+
+        storage.setTimestamp(size, Math.addExact(
+                Math.multiplyExact(sale.timestamp.getEpochSecond(), NANOS_PER_SECOND), sale.timestamp.getNano()));
+        storage.set(size, PRICE, sale.pricePerProduct);
+        storage.set(size, QUANTITY, sale.quantity);
+        storage.set(size, PAYMENT_ID, sale.paymentID);
+        storage.set(size, PERIOD_ID, periodID);
+        storage.set(size, ARTICLE, sale.article == null ? -1 : articleDictionary.code(sale.article));
+        storage.set(size, SELLER, sellerDictionary.code(sale.seller));
+        storage.set(size, BILL, billDictionary.code(sale.billID));
+
+        int[] range = periodRows.computeIfAbsent(periodID, k -> new int[]{size, size});
+        range[1] = size + 1;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Cursor rows() {
+        return new Cursor(0, size);
+    }
+
+    /**
+     * A periódus sorai; egy periódus sorai mindig egymás után következnek.
+     */
+    public Cursor periodRows(int periodID) {
+        int[] range = periodRows.get(periodID);
+        return range == null ? new Cursor(0, 0) : new Cursor(range[0], range[1]);
+    }
+
+    /**
+     * Sorok egy szakaszán lépked végig. A tárolót a létrehozásakor rögzíti, ezért a később hozzáfűzött sorokat nem
+     * látja, de azok nem is zavarják.
+     */
+    public class Cursor {
+
+        private final Storage storage = SalesColumns.this.storage;
+        private final Article[] articleValues = articleDictionary.values;
+        private final String[] sellerValues = sellerDictionary.values;
+        private final Sale.BillID[] billValues = billDictionary.values;
+
+        private final int from, to;
+        private int row;
+
+        private Cursor(int from, int to) {
+            this.from = from;
+            this.to = to;
+            row = from - 1;
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        /**
+         * A következő sorra lép; kezdetben az első előtt áll.
+         *
+         * @return false, ha nincs több sor
+         */
+        public boolean next() {
+            if (row + 1 >= to)
+                return false;
+            row++;
+            return true;
+        }
+
+        /**
+         * A szakasz {@code index}-edik sorára lép.
+         */
+        public Cursor at(int index) {
+            if (index < 0 || index >= to - from)
+                throw new IndexOutOfBoundsException(index + " of " + (to - from));
+            row = from + index;
+            return this;
+        }
+
+        public Instant timestamp() {
+            long t = storage.timestamp(row);
+            return Instant.ofEpochSecond(Math.floorDiv(t, NANOS_PER_SECOND), Math.floorMod(t, NANOS_PER_SECOND));
+        }
+
+        public Article article() {
+            int code = storage.get(row, ARTICLE);
+            return code == -1 ? null : articleValues[code];
+        }
+
+        public int quantity() {
+            return storage.get(row, QUANTITY);
+        }
+
+        public int pricePerProduct() {
+            return storage.get(row, PRICE);
+        }
+
+        public String seller() {
+            return sellerValues[storage.get(row, SELLER)];
+        }
+
+        public Sale.BillID billID() {
+            return billValues[storage.get(row, BILL)];
+        }
+
+        public int paymentID() {
+            return storage.get(row, PAYMENT_ID);
+        }
+
+        public int periodID() {
+            return storage.get(row, PERIOD_ID);
+        }
+
+        public Sale toSale() {
+            Sale sale = new Sale();
+            sale.timestamp = timestamp();
+            sale.article = article();
+            sale.quantity = quantity();
+            sale.pricePerProduct = pricePerProduct();
+            sale.seller = seller();
+            sale.billID = billID();
+            sale.paymentID = paymentID();
+            return sale;
+        }
+
+        /**
+         * Ugyanaz, mint a {@link SellingPeriod#revenue()} a szakasz soraira, a kurzor helyétől függetlenül.
+         */
+        public int revenue() {
+            Map<Integer, Integer> payments = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                Sale.BillID bill = billValues[storage.get(i, BILL)];
+                int amount = bill instanceof Sale.PeriodBillID || bill instanceof Sale.PeriodCardBillID ?
+                        storage.get(i, PRICE) * storage.get(i, QUANTITY) : 0;
+                payments.merge(storage.get(i, PAYMENT_ID), amount, Integer::sum);
+            }
+            int revenue = 0;
+            for (int amount : payments.values())
+                revenue += SellingPeriod.round(amount);
+            return revenue;
+        }
+    }
+
+    /**
+     * Rögzített kapacitású oszloptároló; a bővítés egy új, nagyobb példányt ad, a régi olvasható marad.
+     */
+    private interface Storage {
+
+        int capacity();
+
+        /**
+         * @return kétszeres kapacitású másolat az első {@code size} sorról
+         */
+        Storage grow(int size);
+
+        long timestamp(int row);
+
+        void setTimestamp(int row, long timestamp);
+
+        int get(int row, int column);
+
+        void set(int row, int column, int value);
+    }
+
+    private static class HeapStorage implements Storage {
+
+        private final long[] timestamps;
+        private final int[][] columns;
+
+        HeapStorage(int capacity) {
+            timestamps = new long[capacity];
+            columns = new int[INT_COLUMNS][capacity];
+        }
+
+        @Override
+        public int capacity() {
+            return timestamps.length;
+        }
+
+        @Override
+        public Storage grow(int size) {
+            HeapStorage s = new HeapStorage(timestamps.length * 2);
+            System.arraycopy(timestamps, 0, s.timestamps, 0, size);
+            for (int c = 0; c < INT_COLUMNS; c++)
+                System.arraycopy(columns[c], 0, s.columns[c], 0, size);
+            return s;
+        }
+
+        @Override
+        public long timestamp(int row) {
+            return timestamps[row];
+        }
+
+        @Override
+        public void setTimestamp(int row, long timestamp) {
+            timestamps[row] = timestamp;
+        }
+
+        @Override
+        public int get(int row, int column) {
+            return columns[column][row];
+        }
+
+        @Override
+        public void set(int row, int column, int value) {
+            columns[column][row] = value;
+        }
+    }
+
+    /**
+     * Ugyanaz az oszlopos elrendezés egy direkt pufferben: elöl az időpontok, utána az int oszlopok egymás után.
+     */
+    private static class DirectStorage implements Storage {
+
+        private final ByteBuffer buffer;
+        private final int capacity;
+
+        DirectStorage(int capacity) {
+            this.capacity = capacity;
+            buffer = ByteBuffer.allocateDirect(capacity * (Long.BYTES + INT_COLUMNS * Integer.BYTES)).
+                    order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public int capacity() {
+            return capacity;
+        }
+
+        @Override
+        public Storage grow(int size) {
+            DirectStorage s = new DirectStorage(capacity * 2);
+            s.buffer.put(0, buffer, 0, size * Long.BYTES);
+            for (int c = 0; c < INT_COLUMNS; c++)
+                s.buffer.put(s.intOffset(0, c), buffer, intOffset(0, c), size * Integer.BYTES);
+            return s;
+        }
+
+        private int intOffset(int row, int column) {
+            return capacity * Long.BYTES + (column * capacity + row) * Integer.BYTES;
+        }
+
+        @Override
+        public long timestamp(int row) {
+            return buffer.getLong(row * Long.BYTES);
+        }
+
+        @Override
+        public void setTimestamp(int row, long timestamp) {
+            buffer.putLong(row * Long.BYTES, timestamp);
+        }
+
+        @Override
+        public int get(int row, int column) {
+            return buffer.getInt(intOffset(row, column));
+        }
+
+        @Override
+        public void set(int row, int column, int value) {
+            buffer.putInt(intOffset(row, column), value);
+        }
+    }
+
+    private static class Dictionary<T> {
+
+        private final Map<T, Integer> codes = new HashMap<>();
+        private T[] values;
+
+        @SuppressWarnings("unchecked")
+        Dictionary(Class<T> type) {
+            values = (T[]) Array.newInstance(type, 16);
+        }
+
+        int code(T value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = codes.size();
+                if (code == values.length)
+                    values = Arrays.copyOf(values, code * 2);
+                values[code] = value;
+                codes.put(value, code);
+            }
+            return code;
+        }
+    }
+}
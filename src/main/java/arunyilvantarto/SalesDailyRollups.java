@@ -0,0 +1,150 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Napi összesítők termékenként: (nap, terméknév) -> mennyiség, bevétel, személyzeti számlára írt mennyiség és
+ * visszáru. Az állapota mentett, így a {@link SalesIO#readResumable}-vel csak az első indításkor kell a teljes
+ * sales.tsv-t végigolvasni, utána a {@link SalesLedger} minden eladási eseménnyel frissíti. A napokat a megadott
+ * időzónában számoljuk; ha a mentett állapot másik zónában készült, elölről olvassuk. Az összesítők nem függnek a
+ * sorok sorrendjétől, így az első, teljes beolvasás párhuzamos.
+ */
+public final class SalesDailyRollups implements ResumableSalesVisitor, CombinableSalesVisitor<SalesDailyRollups> {
+
+    /**
+     * Egy termék egy napi összesítője.
+     *
+     * @param quantity          az eladott mennyiség, a visszáruval csökkentve
+     * @param revenue           az ár és a mennyiség szorzatainak összege a periódus (készpénzes vagy bankkártyás)
+     *                          számlára írt sorokra, kerekítés nélkül
+     * @param staffBillQuantity a személyzeti számlára írt mennyiség, a visszáruval csökkentve
+     * @param returnedQuantity  a negatív mennyiségű sorok mennyiségeinek abszolút értéke
+     */
+    public record Rollup(int quantity, int revenue, int staffBillQuantity, int returnedQuantity) {
+
+        public static final Rollup EMPTY = new Rollup(0, 0, 0, 0);
+
+        Rollup plus(Rollup r) {
+            return new Rollup(quantity + r.quantity, revenue + r.revenue, staffBillQuantity + r.staffBillQuantity,
+                    returnedQuantity + r.returnedQuantity);
+        }
+    }
+
+    private final ZoneId zone;
+
+    // terméknév -> nap -> összesítő; a days-ben az összes nap, amikor bármit eladtak
+    private final Map<String, NavigableMap<LocalDate, Rollup>> articles = new HashMap<>();
+    private final NavigableSet<LocalDate> days = new TreeSet<>();
+
+    public SalesDailyRollups(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    @Override
+    public String cacheKey() {
+        return "daily-rollups-v1";
+    }
+
+    @Override
+    public Set<RowKind> rowKinds() {
+        return EnumSet.of(RowKind.SALE);
+    }
+
+    @Override
+    public void sale(Sale sale) {
+        LocalDate day = LocalDate.ofInstant(sale.timestamp, zone);
+        days.add(day);
+        if (sale.article == null)
+            return;
+
+        boolean staffBill = sale.billID instanceof Sale.StaffBillID;
+        Rollup r = new Rollup(sale.quantity, staffBill ? 0 : sale.pricePerProduct * sale.quantity,
+                staffBill ? sale.quantity : 0, Math.max(0, -sale.quantity));
+        articles.computeIfAbsent(sale.article.name, k -> new TreeMap<>()).merge(day, r, Rollup::plus);
+    }
+
+    @Override
+    public SalesDailyRollups fork() {
+        return new SalesDailyRollups(zone);
+    }
+
+    @Override
+    public void combine(SalesDailyRollups other) {
+        days.addAll(other.days);
+        other.articles.forEach((name, rollups) -> {
+            NavigableMap<LocalDate, Rollup> to = articles.computeIfAbsent(name, k -> new TreeMap<>());
+            rollups.forEach((day, r) -> to.merge(day, r, Rollup::plus));
+        });
+    }
+
+    /**
+     * @return a két nap között (mindkettőt beleértve) azok a napok, amikor bármit eladtak, és a termék aznapi
+     * összesítője ({@link Rollup#EMPTY}, ha a termékből nem)
+     */
+    public SortedMap<LocalDate, Rollup> article(String articleName, LocalDate from, LocalDate to) {
+        NavigableMap<LocalDate, Rollup> rollups = articles.getOrDefault(articleName, Collections.emptyNavigableMap());
+        SortedMap<LocalDate, Rollup> result = new TreeMap<>();
+        for (LocalDate d : days.subSet(from, true, to, true))
+            result.put(d, rollups.getOrDefault(d, Rollup.EMPTY));
+        return result;
+    }
+
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        out.writeUTF(zone.getId());
+        SalesSegment.writeVarLong(out, days.size());
+        long previous = 0;
+        for (LocalDate d : days) {
+            SalesSegment.writeVarLong(out, d.toEpochDay() - previous);
+            previous = d.toEpochDay();
+        }
+
+        out.writeInt(articles.size());
+        for (Map.Entry<String, NavigableMap<LocalDate, Rollup>> e : articles.entrySet()) {
+            out.writeUTF(e.getKey());
+            SalesSegment.writeVarLong(out, e.getValue().size());
+            previous = 0;
+            for (Map.Entry<LocalDate, Rollup> day : e.getValue().entrySet()) {
+                SalesSegment.writeVarLong(out, day.getKey().toEpochDay() - previous);
+                previous = day.getKey().toEpochDay();
+                Rollup r = day.getValue();
+                out.writeInt(r.quantity);
+                out.writeInt(r.revenue);
+                out.writeInt(r.staffBillQuantity);
+                out.writeInt(r.returnedQuantity);
+            }
+        }
+    }
+
+    /**
+     * Először a zónát ellenőrzi, és csak a teljesen beolvasott állapotot veszi át, így hiba esetén üres marad.
+     */
+    @Override
+    public void restore(DataInputStream in) throws IOException {
+        if (!in.readUTF().equals(zone.getId()))
+            throw new IOException("rollups saved in another time zone");
+        NavigableSet<LocalDate> days = new TreeSet<>();
+        long day = 0;
+        for (long n = SalesSegment.readVarLong(in); n > 0; n--)
+            days.add(LocalDate.ofEpochDay(day += SalesSegment.readVarLong(in)));
+
+        Map<String, NavigableMap<LocalDate, Rollup>> articles = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            NavigableMap<LocalDate, Rollup> rollups = new TreeMap<>();
+            articles.put(in.readUTF(), rollups);
+            day = 0;
+            for (long n = SalesSegment.readVarLong(in); n > 0; n--)
+                rollups.put(LocalDate.ofEpochDay(day += SalesSegment.readVarLong(in)),
+                        new Rollup(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+        this.days.addAll(days);
+        this.articles.putAll(articles);
+    }
+}
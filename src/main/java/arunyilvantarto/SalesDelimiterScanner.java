@@ -0,0 +1,20 @@
+package arunyilvantarto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tabulátorok és sorvégek keresése egyszerre {@link #width()} bájton a {@link SalesRow}-hoz. A megvalósítás, a
+ * SalesVectorScanner a jdk.incubator.vector modult használja, ezért külön forráskönyvtárban (src/vector) van, és
+ * csak kérésre töltjük be, lásd {@link SalesRow#VECTOR_SCANNER}.
+ */
+interface SalesDelimiterScanner {
+
+    int width();
+
+    /**
+     * A {@code position}-tól kezdődő {@link #width()} bájtot nézi át. A {@code words} k-adik elemében a
+     * {@code position + 8 * k + j} bájthoz a j-edik bájt legfelső bitje tartozik: 1, ha ott tabulátor vagy sorvége van,
+     * a többi bit 0; a pozíció így {@code Long.numberOfTrailingZeros(word) >>> 3}.
+     */
+    void delimiters(ByteBuffer buffer, int position, long[] words);
+}
@@ -5,50 +5,230 @@ import arunyilvantarto.domain.Sale;
 import arunyilvantarto.events.SellingEvent;
 import arunyilvantarto.domain.SellingPeriod;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.Reader;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
-import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.ZoneId;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
+/**
+ * A sales.tsv olvasása és írása. Olvasáskor a fájlt egyetlen {@link MappedByteBuffer}-be képezzük le, és a
+ * pozíciókat int-ként kezeljük, ezért legfeljebb {@link #MAX_FILE_SIZE} bájtos fájlt tud kezelni; nagyobbat már
+ * megnyitni sem enged.
+ */
 public class SalesIO implements AutoCloseable{
 
-    private static final int MIN_COLS = 6;
-    private static final int MAX_COLS = 9;
+    /**
+     * Egy bájttömbként leképezhető fájl legnagyobb mérete, kb. 2 GiB.
+     */
+    public static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    static final int MIN_COLS = 6;
+    static final int MAX_COLS = 9;
 
     private static final String PERIOD_OPEN_PRODUCT_NAME = "NYITÁS";
     private static final String PERIOD_CLOSE_PRODUCT_NAME = "ZÁRÁS";
     private static final String MODIFY_CASH_PRODUCT_NAME = "KASSZAMÓDOSÍTÁS";
     private static final String STAFF_BILL_PAY_PRODUCT_NAME = "SZEMÉLYZETI SZÁMLA BEFIZETÉS";
 
+    // ennél kisebb darabokra nem éri meg szétosztani a fájlt
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    // egy sales.tsv sor átlagos hossza, a stream méretbecsléséhez
+    private static final int ESTIMATED_ROW_BYTES = 60;
+
+    private static final byte[] HEADER_FIRST_COLUMN = "Időpont".getBytes(UTF_8);
+    static final byte[] PERIOD_OPEN_PRODUCT_NAME_BYTES = PERIOD_OPEN_PRODUCT_NAME.getBytes(UTF_8);
+    static final byte[] PERIOD_CLOSE_PRODUCT_NAME_BYTES = PERIOD_CLOSE_PRODUCT_NAME.getBytes(UTF_8);
+    static final byte[] MODIFY_CASH_PRODUCT_NAME_BYTES = MODIFY_CASH_PRODUCT_NAME.getBytes(UTF_8);
+    static final byte[] STAFF_BILL_PAY_PRODUCT_NAME_BYTES = STAFF_BILL_PAY_PRODUCT_NAME.getBytes(UTF_8);
+
     private final DataRoot data;
     private final FileChannel channel;
+    private final Path checkpointPath;
+    private final Path manifestPath;
+    private final Path timeIndexPath;
+    private final Path articleIndexPath;
+    private final Path aggregatesPath;
+    private final String fileKey;
+    private final SalesCheckpoint state;
+    private final SalesWriter writer;
+    private final SalesRowEncoder encoder = new SalesRowEncoder();
+    private final CRC32 crc = new CRC32();
+
+    // a tömörített rész; a szegmensek a tartalomjegyzék bejegyzéseinek sorrendjében
+    private SalesManifest manifest = new SalesManifest();
+    private List<SalesSegment> segments = List.of();
+    // az első időszakos olvasáskor töltődik be
+    private SalesTimeIndex timeIndex;
+    // az első termékenkénti olvasáskor töltődik be
+    private SalesArticleIndex articleIndex;
+
+    // periódusazonosító -> a NYITÁS és a ZÁRÁS sor pozíciója (-1, ha még nincs lezárva) a szegmensek utáni részben;
+    // a periodRowsIndexed pozícióig van felépítve
+    private final Map<Integer, long[]> periodRows = new HashMap<>();
+    private long periodRowsIndexed;
+
+    private final Object sharedReadLock = new Object();
+    // a következő, még el nem indult közös olvasás; null, ha nincs ütemezve
+    private SharedRead nextSharedRead;
+    // a futó közös olvasás, amibe a sorrendtől független visitorok még beszállhatnak; null, ha nincs
+    private SharedRead runningSharedRead;
 
     public SalesIO(DataRoot data, FileChannel channel) throws IOException {
+        this(data, channel, null, WritePolicy.OS_BUFFERED);
+    }
+
+    /**
+     * @param checkpointPath a futó állapot mellékfájlja, vagy null, ha nem kell elmenteni
+     */
+    public SalesIO(DataRoot data, FileChannel channel, Path checkpointPath, WritePolicy writePolicy)
+            throws IOException {
+        this(data, channel, checkpointPath, null, writePolicy);
+    }
+
+    /**
+     * @param manifestPath a lezárt periódusok bináris másolatának tartalomjegyzéke, lásd {@link #compact()}; a havi
+     *                     szegmensfájlok mellette vannak. Null, ha nem kell.
+     */
+    public SalesIO(DataRoot data, FileChannel channel, Path checkpointPath, Path manifestPath,
+                   WritePolicy writePolicy) throws IOException {
+        this(data, null, channel, checkpointPath, manifestPath, null, writePolicy);
+    }
+
+    /**
+     * @param path           a sales.tsv helye, a {@code channel} ezt a fájlt olvassa; a mellékfájlok a
+     *                       fájlazonosítójából (lásd {@link BasicFileAttributes#fileKey()}) is ellenőrzik, hogy még
+     *                       ehhez a fájlhoz tartoznak-e. Null, ha nem ismert.
+     * @param aggregatesPath a {@link #readResumable} mentett állapotainak könyvtára, vagy null, ha nem kell menteni
+     */
+    public SalesIO(DataRoot data, Path path, FileChannel channel, Path checkpointPath, Path manifestPath,
+                   Path aggregatesPath, WritePolicy writePolicy) throws IOException {
+        this(data, path, channel, checkpointPath, manifestPath, null, aggregatesPath, writePolicy);
+    }
+
+    /**
+     * @param timeIndexPath a sales.tsv ritka időpont-indexe, lásd {@link #read(SalesVisitor, Instant, Instant)}, vagy
+     *                      null, ha nem kell
+     */
+    public SalesIO(DataRoot data, Path path, FileChannel channel, Path checkpointPath, Path manifestPath,
+                   Path timeIndexPath, Path aggregatesPath, WritePolicy writePolicy) throws IOException {
+        this(data, path, channel, checkpointPath, manifestPath, timeIndexPath, null, aggregatesPath, writePolicy);
+    }
+
+    /**
+     * @param articleIndexPath a termékenkénti index, lásd {@link #readArticle}, vagy null, ha nem kell
+     */
+    public SalesIO(DataRoot data, Path path, FileChannel channel, Path checkpointPath, Path manifestPath,
+                   Path timeIndexPath, Path articleIndexPath, Path aggregatesPath, WritePolicy writePolicy)
+            throws IOException {
         this.data = data;
         this.channel = channel;
+        this.checkpointPath = checkpointPath;
+        this.manifestPath = manifestPath;
+        this.timeIndexPath = timeIndexPath;
+        this.articleIndexPath = articleIndexPath;
+        this.aggregatesPath = aggregatesPath;
+        // Windowson nincs ilyen, ott csak a lefedett rész utolsó sora alapján ellenőrzünk
+        this.fileKey = path == null ? "" :
+                Objects.toString(Files.readAttributes(path, BasicFileAttributes.class).fileKey(), "");
 
+        if (channel.size() > MAX_FILE_SIZE)
+            throw new IOException("sales file is " + channel.size() + " bytes, larger than the " + MAX_FILE_SIZE +
+                    " bytes memory-mapped reading supports; archive the old periods into another file");
         channel.position(channel.size());
+        state = loadCheckpoint();
+        writer = new SalesWriter(channel, writePolicy);
+        if (manifestPath != null)
+            openSegments();
     }
 
-    public synchronized void begin() {
-        writeImpl("Időpont\tTermék\tMennyiség\tTermékenkénti ár\tEladó\tPeriódusazonosító vagy személynév\tBankkártya összeg\tVásárlásazonosító\n");
+    /**
+     * Betölti a tartalomjegyzéket és megnyitja a szegmenseket. Ha a tartalomjegyzék nem ehhez a sales.tsv-hez
+     * tartozik (például egy másik fájl került a helyére), a szegmenseit törli; ha csak egy szegmens sérült, az előtte
+     * lévőket megtartja.
+     */
+    private void openSegments() throws IOException {
+        SalesManifest loaded = SalesManifest.load(manifestPath);
+        if (loaded == null)
+            return;
+        MappedByteBuffer buffer = map();
+        if (!isPrefix(buffer, loaded.generation, loaded.fileKey, loaded.coveredOffset, loaded.lastLineChecksum)) {
+            for (SalesManifest.Entry e : loaded.entries)
+                Files.deleteIfExists(manifestPath.resolveSibling(e.fileName()));
+            return;
+        }
+
+        SalesManifest m = new SalesManifest();
+        List<SalesSegment> opened = new ArrayList<>();
+        for (SalesManifest.Entry e : loaded.entries) {
+            SalesSegment segment = SalesSegment.open(manifestPath.resolveSibling(e.fileName()));
+            if (segment == null)
+                break;
+            m.entries.add(e);
+            m.coveredOffset = e.endOffset();
+            opened.add(segment);
+        }
+        m.fileKey = fileKey;
+        m.generation = state.generation;
+        m.lastLineChecksum = lastLineChecksum(buffer, (int) m.coveredOffset);
+        manifest = m;
+        segments = opened;
     }
 
-    public synchronized void writeEvent(SellingEvent sellingEvent) {
-        switch (sellingEvent) {
+    public synchronized CompletableFuture<Void> begin() {
+        encoder.clear();
+        encoder.text("Időpont\tTermék\tMennyiség\tTermékenkénti ár\tEladó\tPeriódusazonosító vagy személynév\tBankkártya összeg\tVásárlásazonosító\n");
+        return writeImpl();
+    }
+
+    /**
+     * @return akkor teljesül, amikor a sor az írási szabály szerint elmentettnek számít
+     */
+    public synchronized CompletableFuture<Void> writeEvent(SellingEvent sellingEvent) {
+        return switch (sellingEvent) {
             case SellingEvent.BeginPeriodEvent e ->
                     beginPeriod(e.period(), e.comment());
 
             case SellingEvent.SaleEvent e ->
                     sale(e.sale());
 
+            case SellingEvent.PaymentEvent e ->
+                    payment(e.paymentID(), e.sales());
+
             case SellingEvent.EndPeriodEvent e ->
                     endPeriod(e.period(), e.comment());
 
@@ -57,166 +237,1419 @@ public class SalesIO implements AutoCloseable{
 
             case SellingEvent.StaffBillPay e ->
                     staffBillPay(e.bill(), e.administrator(), e.money());
-        }
+        };
     }
 
-    public synchronized void beginPeriod(SellingPeriod period, String comment) {
+    public synchronized CompletableFuture<Void> beginPeriod(SellingPeriod period, String comment) {
         if (period.username.isEmpty())
             throw new IllegalArgumentException("empty seller name");
 
-        LocalDateTime timestamp = LocalDateTime.ofInstant(period.beginTime, ZoneId.systemDefault());
-        writeImpl(timestamp, PERIOD_OPEN_PRODUCT_NAME, 1, -period.openCash, period.username,
-                new Sale.PeriodBillID(period.id), period.openCreditCardAmount, 0, comment);
+        long offset = state.offset;
+        CompletableFuture<Void> written = writeImpl(period.beginTime, PERIOD_OPEN_PRODUCT_NAME, 1, -period.openCash,
+                period.username, new Sale.PeriodBillID(period.id), period.openCreditCardAmount, 0, comment);
+        state.periodOpened(period.id, offset);
+        saveCheckpoint();
+        return written;
+    }
+
+    public synchronized CompletableFuture<Void> sale(Sale sale) {
+        encoder.clear();
+        encodeSale(sale);
+        CompletableFuture<Void> written = writeImpl();
+        state.paid(sale.paymentID);
+        return written;
     }
 
-    public synchronized void sale(Sale sale) {
+    /**
+     * Egy vásárlás összes sorát egyetlen pufferben, egyetlen írással fűzi a fájlhoz.
+     */
+    public synchronized CompletableFuture<Void> payment(int paymentID, List<Sale> sales) {
+        if (sales.isEmpty())
+            throw new IllegalArgumentException("empty payment " + paymentID);
+
+        encoder.clear();
+        for (Sale sale : sales) {
+            if (sale.paymentID != paymentID)
+                throw new IllegalArgumentException("sale payment ID " + sale.paymentID + " in payment " + paymentID);
+            encodeSale(sale);
+        }
+        CompletableFuture<Void> written = writeImpl();
+        state.paid(paymentID);
+        return written;
+    }
+
+    private void encodeSale(Sale sale) {
         if (sale.article != null && sale.article.name.isEmpty() || sale.seller.isEmpty())
             throw new IllegalArgumentException("empty product name or seller name");
 
-        LocalDateTime timestamp = LocalDateTime.ofInstant(sale.timestamp, ZoneId.systemDefault());
-        writeImpl(timestamp, sale.article == null ? null : sale.article.name,
+        encoder.row(sale.timestamp, sale.article == null ? null : sale.article.name,
                 sale.quantity, sale.pricePerProduct, sale.seller, sale.billID, -1, sale.paymentID, null);
     }
 
-    public synchronized void endPeriod(SellingPeriod period, String comment) {
+    public synchronized CompletableFuture<Void> endPeriod(SellingPeriod period, String comment) {
         if (period.username.isEmpty())
             throw new IllegalArgumentException("empty seller name");
 
-        LocalDateTime timestamp = LocalDateTime.ofInstant(period.endTime, ZoneId.systemDefault());
-        writeImpl(timestamp, PERIOD_CLOSE_PRODUCT_NAME, 1, period.closeCash, period.username,
-                new Sale.PeriodBillID(period.id), period.closeCreditCardAmount, 0, comment);
+        CompletableFuture<Void> written = writeImpl(period.endTime, PERIOD_CLOSE_PRODUCT_NAME, 1, period.closeCash,
+                period.username, new Sale.PeriodBillID(period.id), period.closeCreditCardAmount, 0, comment);
+        state.periodClosed(period.closeCash, period.closeCreditCardAmount);
+        saveCheckpoint();
+        return written;
+    }
+
+    public synchronized CompletableFuture<Void> modifyCash(String username, int cash, int creditCardAmount) {
+        CompletableFuture<Void> written = writeImpl(Instant.now(), MODIFY_CASH_PRODUCT_NAME, 0, cash, username, null,
+                creditCardAmount, 0, null);
+        state.cashModified(cash, creditCardAmount);
+        saveCheckpoint();
+        return written;
     }
 
-    public synchronized void modifyCash(String username, int cash, int creditCardAmount) {
-        LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.now(), ZoneId.systemDefault());
-        writeImpl(timestamp, MODIFY_CASH_PRODUCT_NAME, 0, cash, username, null, creditCardAmount, 0, null);
+    public synchronized CompletableFuture<Void> staffBillPay(Sale.StaffBillID bill, String administrator, int money) {
+        return staffBillPay(bill, administrator, money, Instant.now());
     }
 
-    public synchronized void staffBillPay(Sale.StaffBillID bill, String administrator, int money) {
-        LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.now(), ZoneId.systemDefault());
-        writeImpl(timestamp, STAFF_BILL_PAY_PRODUCT_NAME, 1, -money, administrator, bill,
+    /**
+     * Egy korábbi befizetést ír ki újra, az eredeti időpontjával.
+     */
+    public synchronized CompletableFuture<Void> staffBillPay(Sale.StaffBillID bill, String administrator, int money,
+                                                             Instant timestamp) {
+        return writeImpl(timestamp, STAFF_BILL_PAY_PRODUCT_NAME, 1, -money, administrator, bill,
                 0, 0, null);
     }
 
-    public synchronized void read(SalesVisitor visitor) {
+    /**
+     * Egyszer olvassa végig a fájlt, és minden sort az összes visitornak továbbad.
+     */
+    public void read(SalesVisitor... visitors) {
+        readImpl(visitors.length == 1 ? visitors[0] : SalesVisitor.all(List.of(visitors)));
+    }
+
+    /**
+     * Csak azokat a havi szegmenseket olvassa be, amelyekben van a [from, to) intervallumba eső időpont, a még nem
+     * tömörített részből pedig a ritka időpont-index alapján csak a {@code from} előtti utolsó indexelt periódustól
+     * az első {@code to} után kezdődő indexelt periódusig tartó szakaszt. A visitor ennél több sort is kaphat, a
+     * pontos szűrés az ő dolga; a periódusokat viszont mindig teljes egészében kapja.
+     */
+    public synchronized void read(SalesVisitor visitor, Instant from, Instant to) {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            int start = segmentEnd(), end = buffer.limit();
+            SalesTimeIndex index = timeIndex(buffer);
+            if (index != null) {
+                start = Math.max(start, (int) index.floorOffset(from));
+                long ceiling = index.ceilingOffset(to);
+                if (ceiling != -1)
+                    end = Math.max(start, (int) ceiling);
+            }
+            readImpl(buffer, visitor, e -> e.overlaps(from, to), start, end);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Mint a {@link #read(SalesVisitor, Instant, Instant)}, csak a periódusazonosítók tartománya (mindkét végén zárt)
+     * alapján válogat a szegmensek közül, a még nem tömörített részből pedig a {@link #readPeriod} periódusindexéből
+     * csak az első kért periódus NYITÁS sorától az utolsó utáni periódus NYITÁS soráig olvas.
+     */
+    public synchronized void readPeriods(SalesVisitor visitor, int fromPeriodID, int toPeriodID) {
         try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            indexPeriodRows(buffer);
+            long start = buffer.limit(), end = buffer.limit();
+            for (Map.Entry<Integer, long[]> e : periodRows.entrySet()) {
+                long offset = e.getValue()[0];
+                if (offset < segmentEnd())
+                    continue;
+                if (e.getKey() >= fromPeriodID && e.getKey() <= toPeriodID)
+                    start = Math.min(start, offset);
+                else if (e.getKey() > toPeriodID)
+                    end = Math.min(end, offset);
+            }
+            readImpl(buffer, visitor, e -> e.overlapsPeriods(fromPeriodID, toPeriodID), (int) start,
+                    (int) Math.max(start, end));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Csak egy periódus sorait adja a visitornak, a NYITÁS sortól a ZÁRÁS sorig. A tömörített részben a szegmensek
+     * periódusindexéből, utána egy a fájl végéig mindig kiegészített periódusazonosító -> sorpozíció indexből tudja,
+     * hol kezdődik, így a fájl többi részét nem olvassa.
+     *
+     * @return false, ha nincs ilyen periódus; ekkor a visitor semmit nem kap
+     */
+    public synchronized boolean readPeriod(int periodID, SalesVisitor visitor) {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            SalesSegment segment = null;
+            for (int i = 0; i < segments.size() && segment == null; i++)
+                if (manifest.entries.get(i).overlapsPeriods(periodID, periodID) && segments.get(i).hasPeriod(periodID))
+                    segment = segments.get(i);
+            long[] rows = null;
+            if (segment == null) {
+                indexPeriodRows(buffer);
+                rows = periodRows.get(periodID);
+                if (rows == null)
+                    return false;
+            }
+
+            Set<SalesVisitor.RowKind> kinds = visitor.rowKinds();
             currentReadPeriod = null;
             visitor.begin();
-            channel.position(0);
-
-            Reader reader = Channels.newReader(channel, UTF_8);
-            String[] a = new String[MAX_COLS];
-            char[] b = new char[1000];
-            int i = 0, column = 0, row = 0;
-
-            while (true) {
-                int ch = reader.read();
-                if (ch == -1) {
-                    if (column != 0 || i != 0)
-                        throw new IOException("EOF unexpected @ " + row + ", " + column);
-                    break;
-                } else if (ch == '\t' || ch == '\n') {
-                    if (i == 0)
-                        continue;
-                    a[column++] = new String(b, 0, i);
-                    i = 0;
-                    if (ch == '\n') {
-                        if (column >= MIN_COLS && column <= MAX_COLS) {
-                            if (!a[0].equals("Időpont")) // header
-                                handleRow(a, visitor);
-                        } else
-                            throw new IOException("Newline not after " + MIN_COLS + "-" + MAX_COLS + " columns " +
-                                    "but " + column + " @ " + row);
-                        column = 0;
-                        row++;
+            if (segment != null)
+                segment.forEachInPeriod(data, periodID, record -> dispatch(record, visitor, kinds));
+            else {
+                int end = rows[1] == -1 ? buffer.limit() : nextRowStart(buffer, (int) rows[1] + 1);
+                forEachRow(buffer, (int) rows[0], end, (row, offset) -> {
+                    if (needed(row, kinds))
+                        dispatch(parseRow(row), visitor, kinds);
+                });
+            }
+            visitor.end();
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Egy termék eladásait adja a visitornak, sorrendben. A termékindexből tudja, melyik sorok azok, így csak azokat
+     * olvassa be. Periódusokat és más sorokat a visitor nem kap; az eladások termékét a mostani nevük alapján keresi
+     * ki, mint a {@link #read}.
+     */
+    public void readArticle(String articleName, SalesVisitor visitor) {
+        readArticle(articleName, visitor, null, null);
+    }
+
+    /**
+     * Mint a {@link #readArticle(String, SalesVisitor)}, de az időpont-index alapján csak a [from, to) intervallumot
+     * tartalmazó szakasz sorait adja; a visitor ennél több eladást is kaphat, a pontos szűrés az ő dolga.
+     *
+     * @param from ha null, a fájl elejétől olvas
+     * @param to   ha null, a fájl végéig olvas
+     */
+    public synchronized void readArticle(String articleName, SalesVisitor visitor, Instant from, Instant to) {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            int start = 0, end = buffer.limit();
+            SalesTimeIndex times = timeIndex(buffer);
+            if (times != null && from != null)
+                start = (int) times.floorOffset(from);
+            if (times != null && to != null) {
+                long ceiling = times.ceilingOffset(to);
+                if (ceiling != -1)
+                    end = Math.max(start, (int) ceiling);
+            }
+
+            SalesArticleIndex index = articleIndex(buffer);
+            visitor.begin();
+            if (index == null) {
+                byte[] name = articleName.getBytes(UTF_8);
+                forEachRow(buffer, start, end, (row, offset) -> {
+                    if (row.is(1, name))
+                        visitor.sale(parseSale(row));
+                });
+            } else {
+                SalesRow row = new SalesRow();
+                for (int offset : index.offsets(articleName, start, end)) {
+                    if (row.parse(buffer, offset, buffer.limit()) == -1 || row.columns < MIN_COLS)
+                        throw new IOException("article index out of sync @ " + offset);
+                    visitor.sale(parseSale(row));
+                }
+            }
+            visitor.end();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Betölti, vagy ha nincs, felépíti a termékindexet, és hozzáveszi az utoljára indexelt rész után írt sorokat.
+     * Csak akkor menti, ha sok sor gyűlt össze; a többit a {@link #compact()} és a {@link #close()} menti.
+     *
+     * @return az index, vagy null, ha nincs megadva a helye
+     */
+    private SalesArticleIndex articleIndex(MappedByteBuffer buffer) throws IOException {
+        if (articleIndexPath == null)
+            return null;
+        if (articleIndex == null)
+            articleIndex = SalesArticleIndex.load(articleIndexPath, buffer, state.generation);
+        if (articleIndex.indexedOffset < buffer.limit()) {
+            forEachRow(buffer, articleIndex.indexedOffset, buffer.limit(), articleIndex::add);
+            articleIndex.indexedOffset = buffer.limit();
+        }
+        try {
+            articleIndex.saveIfDue(buffer);
+        } catch (IOException e) {
+            e.printStackTrace(); // a memóriában lévő index így is használható, legközelebb újra felépül
+        }
+        return articleIndex;
+    }
+
+    /**
+     * A termékindex még nem mentett sorait menti, ha már be van töltve.
+     */
+    private void saveArticleIndex() {
+        if (articleIndex == null)
+            return;
+        try {
+            articleIndex.save(map());
+        } catch (IOException e) {
+            e.printStackTrace(); // legközelebb a mentett rész után írt sorokat újra beolvassuk
+        }
+    }
+
+    private void indexPeriodRows(MappedByteBuffer buffer) throws IOException {
+        forEachRow(buffer, (int) Math.max(periodRowsIndexed, segmentEnd()), buffer.limit(), (row, offset) -> {
+            if (row.is(1, PERIOD_OPEN_PRODUCT_NAME_BYTES))
+                periodRows.put(((Sale.PeriodBillID) row.billID(5)).periodID, new long[]{offset, -1});
+            else if (row.is(1, PERIOD_CLOSE_PRODUCT_NAME_BYTES)) {
+                long[] rows = periodRows.get(((Sale.PeriodBillID) row.billID(5)).periodID);
+                if (rows != null)
+                    rows[1] = offset;
+            }
+        });
+        periodRowsIndexed = buffer.limit();
+    }
+
+    private synchronized void readImpl(SalesVisitor visitor) {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            readImpl(buffer, visitor, e -> true, segmentEnd(), buffer.limit());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param start a még nem tömörített részből ettől a sortól olvas
+     * @param end   a még nem tömörített részből eddig a sorig olvas (kizárólag)
+     */
+    private void readImpl(MappedByteBuffer buffer, SalesVisitor visitor, Predicate<SalesManifest.Entry> segmentFilter,
+                          int start, int end) throws IOException {
+        Set<SalesVisitor.RowKind> kinds = visitor.rowKinds();
+        currentReadPeriod = null;
+        visitor.begin();
+        // egy szegmens csak teljes periódusokat tartalmaz, így a kihagyottak nem zavarják az összeillesztést
+        for (int i = 0; i < segments.size(); i++)
+            if (segmentFilter.test(manifest.entries.get(i)))
+                segments.get(i).forEach(data, record -> dispatch(record, visitor, kinds));
+        forEachRow(buffer, start, end, (row, offset) -> {
+            if (needed(row, kinds))
+                dispatch(parseRow(row), visitor, kinds);
+        });
+        visitor.end();
+    }
+
+    /**
+     * Ugyanazt adja a visitornak, ugyanabban a sorrendben és ugyanazon a szálon, mint a {@link #read}, de a fájlt
+     * darabokra vágja (a szegmensek egy-egy darabot adnak), és a darabokat párhuzamosan dolgozza fel a közös
+     * ForkJoinPool-on. Egyszerre csak néhány darab lehet feldolgozás alatt vagy átadásra várva, így a beolvasott
+     * sorokból sosem a teljes történet van a memóriában.
+     */
+    public synchronized void readParallel(SalesVisitor visitor) {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            List<RecordRange> chunks = chunks(buffer);
+            int window = ForkJoinPool.getCommonPoolParallelism() + 1;
+            if (chunks.size() < 2 || window < 3) {
+                // egy darabnál vagy egy szálon a sorok köztes listája csak lassítana
+                readImpl(visitor);
+                return;
+            }
+            Set<SalesVisitor.RowKind> kinds = visitor.rowKinds();
+            ArrayDeque<ForkJoinTask<List<SalesRecord>>> parsing = new ArrayDeque<>();
+            int next = 0;
+            currentReadPeriod = null;
+            visitor.begin();
+            while (next < chunks.size() || !parsing.isEmpty()) {
+                while (next < chunks.size() && parsing.size() < window) {
+                    RecordRange chunk = chunks.get(next++);
+                    parsing.add(ForkJoinPool.commonPool().submit(() -> parseChunk(buffer, chunk, kinds)));
+                }
+                for (SalesRecord record : parsing.remove().join())
+                    dispatch(record, visitor, kinds);
+            }
+            visitor.end();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sorrendtől független összesítésekhez: a darabokat a visitor egy-egy {@link CombinableSalesVisitor#fork()}-ja
+     * dolgozza fel párhuzamosan, és az eredményük fájlbeli sorrendben vonódik össze a visitorba. A periódusokat
+     * előtte a hívó szálon, sorrendben összeilleszti, így a {@code endPeriod} akkor is a periódus összes eladását
+     * látja, ha a periódus több darabon nyúlik át. Ahogy a {@link #readParallel}, ez is csak néhány darabot tart
+     * egyszerre a memóriában.
+     *
+     * @return a paraméterként kapott visitor, aminek az {@code end()}-je már lefutott
+     */
+    public synchronized <V extends CombinableSalesVisitor<V>> V readCombining(V visitor) {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            currentReadPeriod = null;
+            visitor.begin();
+            combine(buffer, chunks(buffer), visitor, visitor.rowKinds());
+            visitor.end();
+            return visitor;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A visitort egy közös olvasáshoz adja, így több hívó egyetlen beolvasáson osztozik. Ha van ütemezett, de még el
+     * nem indult közös olvasás, ahhoz csatlakozik, különben ütemez egyet az executoron.
+     * <p>
+     * Egy {@link CombinableSalesVisitor} a már futó olvasásba is beszáll: a következő darabhatártól egy
+     * {@link CombinableSalesVisitor#fork() fork}ja a közös olvasással együtt kapja a hátralévő sorokat, a lemaradt
+     * elejét pedig a közös olvasás után egy második fork kapja meg a fájl elejétől újraolvasva. A kettőt fájlbeli
+     * sorrendben vonjuk össze a visitorba, és csak utána hívjuk az {@code end()}-jét.
+     *
+     * @return akkor teljesül, amikor a visitor {@code end()}-je lefutott
+     */
+    public CompletableFuture<Void> readShared(SalesVisitor visitor, Executor executor) {
+        synchronized (sharedReadLock) {
+            if (visitor instanceof CombinableSalesVisitor<?> c && runningSharedRead != null) {
+                SharedRead.Joiner joiner = new SharedRead.Joiner(c);
+                runningSharedRead.joining.add(joiner);
+                return joiner.done;
+            }
+            if (nextSharedRead == null) {
+                SharedRead read = nextSharedRead = new SharedRead();
+                executor.execute(() -> readShared(read));
+            }
+            nextSharedRead.visitors.add(visitor);
+            return nextSharedRead.done;
+        }
+    }
+
+    private void readShared(SharedRead read) {
+        synchronized (sharedReadLock) {
+            nextSharedRead = null;
+            runningSharedRead = read;
+        }
+        List<SharedRead.Joiner> joined = new ArrayList<>();
+        try {
+            synchronized (this) {
+                writer.flush();
+                MappedByteBuffer buffer = map();
+                List<RecordRange> chunks = chunks(buffer);
+                SalesVisitor first = SalesVisitor.all(read.visitors);
+                // az elejétől olvasó visitorok és a beszállók forkjai
+                List<SalesVisitor> targets = new ArrayList<>(read.visitors);
+                SalesVisitor all = SalesVisitor.all(targets);
+                currentReadPeriod = null;
+                first.begin();
+                for (int i = 0; i <= chunks.size(); i++) {
+                    List<SharedRead.Joiner> joining;
+                    synchronized (sharedReadLock) {
+                        joining = new ArrayList<>(read.joining);
+                        read.joining.clear();
+                        if (i == chunks.size() && runningSharedRead == read)
+                            runningSharedRead = null;
                     }
-                } else {
-                    b[i++] = (char) ch;
+                    for (SharedRead.Joiner joiner : joining) {
+                        joiner.chunk = i;
+                        joiner.visitor.begin();
+                        joiner.tail = joiner.visitor.fork();
+                        targets.add(joiner.tail);
+                        joined.add(joiner);
+                    }
+                    if (i < chunks.size())
+                        readRange(buffer, chunks.get(i), all, all.rowKinds());
+                }
+                first.end();
+                read.done.complete(null);
+
+                // a beszállók lemaradt elejei, egyetlen újraolvasással
+                List<SalesVisitor> heads = new ArrayList<>();
+                SalesVisitor allHeads = SalesVisitor.all(heads);
+                currentReadPeriod = null;
+                for (SharedRead.Joiner joiner : joined)
+                    joiner.head = joiner.visitor.fork();
+                for (int i = 0; i < chunks.size(); i++) {
+                    heads.clear();
+                    for (SharedRead.Joiner joiner : joined)
+                        if (i < joiner.chunk)
+                            heads.add(joiner.head);
+                    if (heads.isEmpty())
+                        break;
+                    readRange(buffer, chunks.get(i), allHeads, allHeads.rowKinds());
                 }
             }
+            for (SharedRead.Joiner joiner : joined) {
+                joiner.combine();
+                joiner.visitor.end();
+                joiner.done.complete(null);
+            }
+        } catch (Throwable e) {
+            synchronized (sharedReadLock) {
+                if (runningSharedRead == read)
+                    runningSharedRead = null;
+                joined.addAll(read.joining);
+            }
+            read.done.completeExceptionally(e);
+            for (SharedRead.Joiner joiner : joined)
+                joiner.done.completeExceptionally(e);
+        }
+    }
+
+    private static final class SharedRead {
+
+        final List<SalesVisitor> visitors = new ArrayList<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        // a futás közben jelentkezett, még be nem szállt visitorok
+        final List<Joiner> joining = new ArrayList<>();
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        static final class Joiner {
+
+            final CombinableSalesVisitor visitor;
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            // az első darab, amit a közös olvasásban kapott; az elejét a head, a többit a tail kapja
+            int chunk;
+            CombinableSalesVisitor head, tail;
+
+            Joiner(CombinableSalesVisitor<?> visitor) {
+                this.visitor = visitor;
+            }
+
+            void combine() {
+                visitor.combine(head);
+                visitor.combine(tail);
+            }
+        }
+    }
+
+    private <V extends CombinableSalesVisitor<V>> void combine(MappedByteBuffer buffer, List<RecordRange> chunks,
+                                                                V visitor, Set<SalesVisitor.RowKind> kinds)
+            throws IOException {
+        int window = ForkJoinPool.getCommonPoolParallelism() + 1;
+        if (chunks.size() < 2 || window < 3) {
+            for (RecordRange chunk : chunks)
+                readRange(buffer, chunk, visitor, kinds);
+            return;
+        }
+        ArrayDeque<ForkJoinTask<List<SalesRecord>>> parsing = new ArrayDeque<>();
+        ArrayDeque<ForkJoinTask<V>> visiting = new ArrayDeque<>();
+        int next = 0;
+        while (next < chunks.size() || !parsing.isEmpty()) {
+            while (next < chunks.size() && parsing.size() + visiting.size() < window) {
+                RecordRange chunk = chunks.get(next++);
+                parsing.add(ForkJoinPool.commonPool().submit(() -> parseChunk(buffer, chunk, kinds)));
+            }
+            List<SalesRecord> records = parsing.remove().join();
+            Map<SalesRecord.PeriodClose, SellingPeriod> closedPeriods = new IdentityHashMap<>();
+            for (SalesRecord record : records) {
+                SellingPeriod closed = stitch(record);
+                if (closed != null)
+                    closedPeriods.put((SalesRecord.PeriodClose) record, closed);
+            }
+            V fork = visitor.fork();
+            visiting.add(ForkJoinPool.commonPool().submit(() -> {
+                for (SalesRecord record : records)
+                    if (delivered(record, kinds))
+                        deliver(record, closedPeriods.get(record), fork);
+                return fork;
+            }));
+            while (!visiting.isEmpty() && (visiting.peek().isDone() || visiting.size() >= window))
+                visitor.combine(visiting.remove().join());
+        }
+        while (!visiting.isEmpty())
+            visitor.combine(visiting.remove().join());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void combineUnchecked(MappedByteBuffer buffer, List<RecordRange> chunks, CombinableSalesVisitor visitor,
+                                  Set<SalesVisitor.RowKind> kinds) throws IOException {
+        combine(buffer, chunks, visitor, kinds);
+    }
+
+    /**
+     * Mint a {@link #read}, de a visitor a {@link ResumableSalesVisitor#cacheKey() kulcsa} alatt legutóbb mentett
+     * állapotából folytatja, és csak az azóta írt sorokat kapja meg; ilyenkor a {@code begin()} nem hívódik. Az új
+     * állapotot a nyitott periódus előtti részig menti el, a nyitott periódus sorait mindig újra megkapja, mert azok
+     * még változhatnak. Ha nincs mentett állapot, vagy a sales.tsv azóta újraíródott, elölről olvas.
+     *
+     * @param factory egy új, még semmit nem kapott visitort ad
+     * @return a visitor, aminek az {@code end()}-je már lefutott
+     */
+    public synchronized <V extends ResumableSalesVisitor> V readResumable(Supplier<V> factory) {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+            V visitor = factory.get();
+            if (!visitor.cacheKey().matches("[\\w.-]+"))
+                throw new IllegalArgumentException("invalid cache key: " + visitor.cacheKey());
+            Path path = aggregatesPath == null ? null : aggregatesPath.resolve(visitor.cacheKey() + ".agg");
+            // itt nincs nyitott periódus, és eddig a pontig a sorok már nem változnak
+            int stable = (int) Math.min(buffer.limit(), state.periodOpen ? state.lastPeriodOffset : state.offset);
+
+            SalesAggregateSnapshot saved = path == null ? null : SalesAggregateSnapshot.load(path);
+            int from = 0;
+            boolean restored = false;
+            if (saved != null && saved.offset <= stable &&
+                    isPrefix(buffer, saved.generation, saved.fileKey, saved.offset, saved.lastLineChecksum)) {
+                try {
+                    visitor.restore(new DataInputStream(new ByteArrayInputStream(saved.state)));
+                    from = (int) saved.offset;
+                    restored = true;
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace(); // más formátumú vagy sérült állapot, elölről olvassuk
+                    visitor = factory.get();
+                }
+            }
+
+            Set<SalesVisitor.RowKind> kinds = visitor.rowKinds();
+            SalesVisitor v = visitor;
+            currentReadPeriod = null;
+            if (!restored)
+                visitor.begin();
+            List<RecordRange> ranges = stableRanges(buffer, from, stable);
+            if (visitor instanceof CombinableSalesVisitor<?> c)
+                combineUnchecked(buffer, ranges, c, kinds);
+            else
+                for (RecordRange range : ranges)
+                    readRange(buffer, range, visitor, kinds);
+            if (path != null && !(restored && from == stable)) {
+                SalesAggregateSnapshot snapshot = new SalesAggregateSnapshot();
+                snapshot.fileKey = fileKey;
+                snapshot.generation = state.generation;
+                snapshot.offset = stable;
+                snapshot.lastLineChecksum = lastLineChecksum(buffer, stable);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(bytes)) {
+                    visitor.save(out);
+                }
+                snapshot.state = bytes.toByteArray();
+                try {
+                    snapshot.save(path);
+                } catch (IOException e) {
+                    e.printStackTrace(); // csak gyorsítótár, legközelebb elölről olvasunk
+                }
+            }
+            forEachRow(buffer, stable, buffer.limit(), (row, offset) -> {
+                if (needed(row, kinds))
+                    dispatch(parseRow(row), v, kinds);
+            });
             visitor.end();
+            return visitor;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private SellingPeriod currentReadPeriod;
+    /**
+     * @return a [from, to) tartomány darabjai sorrendben; {@code from}-nál nem lehet nyitott periódus. Ha
+     * {@code from} egy szegmens eleje, vagy egy szegmensben lévő periódus NYITÁS sora, onnan a szegmensekből olvas.
+     */
+    private List<RecordRange> stableRanges(MappedByteBuffer buffer, int from, int to) throws IOException {
+        List<RecordRange> ranges = new ArrayList<>();
+        int first = -1;
+        long segmentFrom = 0;
+        if (from < segmentEnd() && segmentEnd() <= to) {
+            for (int i = 0; i < segments.size() && first == -1; i++)
+                if (manifest.entries.get(i).startOffset() == from) {
+                    first = i;
+                    segmentFrom = segments.get(i).recordsStart();
+                }
+            SalesRow row = new SalesRow();
+            if (first == -1 && row.parse(buffer, from, to) != -1 && row.columns >= MIN_COLS &&
+                    row.is(1, PERIOD_OPEN_PRODUCT_NAME_BYTES)) {
+                int periodID = ((Sale.PeriodBillID) row.billID(5)).periodID;
+                for (int i = 0; i < segments.size() && first == -1; i++)
+                    if (manifest.entries.get(i).overlapsPeriods(periodID, periodID) &&
+                            segments.get(i).periodStart(periodID) != -1) {
+                        first = i;
+                        segmentFrom = segments.get(i).periodStart(periodID);
+                    }
+            }
+        }
+        if (first != -1) {
+            for (int i = first; i < segments.size(); i++) {
+                SalesSegment segment = segments.get(i);
+                ranges.add(new RecordRange(segment, i == first ? segmentFrom : segment.recordsStart(),
+                        segment.recordsEnd()));
+            }
+            from = segmentEnd();
+        }
+        addTsvChunks(buffer, from, to, ranges);
+        return ranges;
+    }
+
+    /**
+     * Sorban a visitornak adja a darab {@link #needed szükséges} sorait, köztes lista nélkül.
+     */
+    private void readRange(MappedByteBuffer buffer, RecordRange range, SalesVisitor visitor,
+                           Set<SalesVisitor.RowKind> kinds) throws IOException {
+        if (range.segment() != null) {
+            try (SalesSegment.Cursor cursor = range.segment().cursor(data, range.from(), range.to())) {
+                for (SalesRecord record; (record = cursor.next()) != null; )
+                    dispatch(record, visitor, kinds);
+            }
+        } else {
+            forEachRow(buffer, (int) range.from(), (int) range.to(), (row, offset) -> {
+                if (needed(row, kinds))
+                    dispatch(parseRow(row), visitor, kinds);
+            });
+        }
+    }
+
+    /**
+     * A sorok rekordként, fájlbeli sorrendben, a létrehozáskori állapot szerint; a később írt sorok nincsenek benne.
+     * A rekordokat csak akkor olvassa be, amikor a stream kéri őket, így egy {@code findFirst} az első találat után
+     * megáll. Párhuzamos streamként a fájlt sorhatárokon, a szegmenseket periódushatárokon darabolja.
+     * <p>
+     * A periódusokat nem illeszti össze: a NYITÁS rekord periódusának eladáslistája üres marad, a zárás adatai csak a
+     * ZÁRÁS rekordban vannak. Ha a stream közben egy {@link #compact()} törli az egyik szegmensfájlt,
+     * RuntimeException-t dob. Az éppen olvasott szegmensfájl nyitva marad, amíg a stream végig nem ér, ezért a
+     * félbehagyott streamet le kell zárni.
+     */
+    public synchronized Stream<SalesRecord> stream() {
+        try {
+            writer.flush();
+            MappedByteBuffer buffer = map();
+
+            List<RecordRange> ranges = new ArrayList<>();
+            for (SalesSegment segment : segments)
+                ranges.add(new RecordRange(segment, segment.recordsStart(), segment.recordsEnd()));
+            if (segmentEnd() < buffer.limit())
+                ranges.add(new RecordRange(null, segmentEnd(), buffer.limit()));
+            Set<SalesSegment.Cursor> cursors = ConcurrentHashMap.newKeySet();
+            return StreamSupport.stream(new RecordSpliterator(buffer, ranges, cursors), false).onClose(() -> {
+                for (SalesSegment.Cursor cursor : cursors) {
+                    try {
+                        cursor.close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A sales.tsv, vagy ha {@code segment} nem null, a szegmensfájl egy bájttartománya.
+     */
+    private record RecordRange(SalesSegment segment, long from, long to) {
+
+        long estimateSize() {
+            return segment == null ? (to - from) / ESTIMATED_ROW_BYTES : segment.estimateRecords(from, to);
+        }
+    }
+
+    private final class RecordSpliterator implements Spliterator<SalesRecord> {
+
+        private final MappedByteBuffer buffer;
+        // a még el nem kezdett tartományok, sorrendben
+        private final List<RecordRange> ranges;
+        private final SalesRow row = new SalesRow();
+        // a stream összes darabjának nyitott kurzorai, a stream lezárásához
+        private final Set<SalesSegment.Cursor> cursors;
+
+        // az éppen olvasott tartomány: szegmensnél a kurzor, a sales.tsv-nél a következő sor helye és a vége
+        private SalesSegment.Cursor cursor;
+        private int position, end;
+
+        RecordSpliterator(MappedByteBuffer buffer, List<RecordRange> ranges, Set<SalesSegment.Cursor> cursors) {
+            this.buffer = buffer;
+            this.ranges = ranges;
+            this.cursors = cursors;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SalesRecord> action) {
+            try {
+                while (true) {
+                    if (cursor != null) {
+                        SalesRecord record = cursor.next();
+                        if (record != null) {
+                            action.accept(record);
+                            return true;
+                        }
+                        cursors.remove(cursor);
+                        cursor = null;
+                    } else if (position < end) {
+                        int next = row.parse(buffer, position, end);
+                        if (next == -1 && row.columns != 0)
+                            throw new IOException("EOF unexpected @ " + position + ", " + row.columns);
+                        if (row.columns != 0 && row.columns < MIN_COLS)
+                            throw new IOException("Newline not after " + MIN_COLS + "-" + MAX_COLS + " columns " +
+                                    "but " + row.columns + " @ " + position);
+                        position = next == -1 ? end : next;
+                        if (row.columns != 0 && !row.is(0, HEADER_FIRST_COLUMN)) {
+                            action.accept(parseRow(row));
+                            return true;
+                        }
+                    } else if (!ranges.isEmpty()) {
+                        RecordRange range = ranges.remove(0);
+                        if (range.segment() != null) {
+                            cursor = range.segment().cursor(data, range.from(), range.to());
+                            cursors.add(cursor);
+                        } else {
+                            position = (int) range.from();
+                            end = (int) range.to();
+                        }
+                    } else {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Csak olvasás előtt darabol: a tartományokat kettéosztja, vagy ha csak egy maradt, azt vágja ketté.
+         */
+        @Override
+        public Spliterator<SalesRecord> trySplit() {
+            if (cursor != null || position < end || ranges.isEmpty())
+                return null;
+            if (ranges.size() == 1) {
+                RecordRange range = ranges.get(0);
+                long middle = range.segment() == null ?
+                        nextRowStart(buffer, (int) (range.from() + (range.to() - range.from()) / 2)) :
+                        range.segment().periodStartNear(range.from(), range.to());
+                if (middle <= range.from() || middle >= range.to() ||
+                        range.segment() == null && range.to() - range.from() < MIN_CHUNK_SIZE)
+                    return null;
+                ranges.set(0, new RecordRange(range.segment(), middle, range.to()));
+                return new RecordSpliterator(buffer,
+                        new ArrayList<>(List.of(new RecordRange(range.segment(), range.from(), middle))), cursors);
+            }
+            List<RecordRange> prefix = ranges.subList(0, ranges.size() / 2);
+            Spliterator<SalesRecord> split = new RecordSpliterator(buffer, new ArrayList<>(prefix), cursors);
+            prefix.clear();
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = 0;
+            for (RecordRange range : ranges)
+                size += range.estimateSize();
+            if (position < end)
+                size += (end - position) / ESTIMATED_ROW_BYTES;
+            return cursor != null ? size + 1 : size;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | IMMUTABLE | NONNULL;
+        }
+    }
+
+    /**
+     * @return a szegmensek, utánuk a sales.tsv többi része sorhatárokon legfeljebb kb. {@link #MIN_CHUNK_SIZE}
+     * méretű darabokra vágva, sorrendben
+     */
+    private List<RecordRange> chunks(MappedByteBuffer buffer) {
+        List<RecordRange> chunks = new ArrayList<>();
+        for (SalesSegment segment : segments)
+            chunks.add(new RecordRange(segment, segment.recordsStart(), segment.recordsEnd()));
+        addTsvChunks(buffer, segmentEnd(), buffer.limit(), chunks);
+        return chunks;
+    }
 
-    private void handleRow(String[] row, SalesVisitor visitor) throws IOException {
-        Instant timestamp = LocalDateTime.parse(row[0]).atZone(ZoneId.systemDefault()).toInstant();
-        String productName = row[1];
-        int quantity = Integer.parseInt(row[2]);
-        int pricePerProduct = Integer.parseInt(row[3]);
-        String seller = row[4];
-        Sale.BillID billID = Sale.BillID.parse(row[5]);
-        int creditCardAmount = row[6] == null || row[6].equals("-") ? 0 : Integer.parseInt(row[6]);
-        int purchaseID = row[7] == null || row[7].equals("-") ? 0 : Integer.parseInt(row[7]);
-        String comment = row[8] == null || row[8].isEmpty() ? null : row[8];
-
-        switch (productName) {
-            case PERIOD_OPEN_PRODUCT_NAME:
-                SellingPeriod p = new SellingPeriod();
-                p.id = ((Sale.PeriodBillID) billID).periodID;
-                p.username = seller;
-                p.openCash = -pricePerProduct;
-                p.beginTime = timestamp;
-                p.sales = new ArrayList<>();
-                p.openCreditCardAmount = creditCardAmount;
-                currentReadPeriod = p;
-                visitor.beginPeriod(p, comment);
+    private static void addTsvChunks(MappedByteBuffer buffer, int from, int end, List<RecordRange> chunks) {
+        while (from < end) {
+            int to = (int) Math.min(end, (long) from + MIN_CHUNK_SIZE);
+            to = Math.min(end, nextRowStart(buffer, to));
+            chunks.add(new RecordRange(null, from, to));
+            from = to;
+        }
+    }
+
+    /**
+     * @return a darab {@link #needed szükséges} sorai
+     */
+    private List<SalesRecord> parseChunk(MappedByteBuffer buffer, RecordRange chunk, Set<SalesVisitor.RowKind> kinds)
+            throws IOException {
+        List<SalesRecord> records = new ArrayList<>();
+        if (chunk.segment() != null) {
+            try (SalesSegment.Cursor cursor = chunk.segment().cursor(data, chunk.from(), chunk.to())) {
+                for (SalesRecord record; (record = cursor.next()) != null; )
+                    if (needed(record, kinds))
+                        records.add(record);
+            }
+        } else {
+            forEachRow(buffer, (int) chunk.from(), (int) chunk.to(), (row, offset) -> {
+                if (needed(row, kinds))
+                    records.add(parseRow(row));
+            });
+        }
+        return records;
+    }
+
+    /**
+     * Betölti, vagy ha nincs, felépíti az időpont-indexet, és hozzáveszi az utoljára indexelt rész után írt sorokat.
+     *
+     * @return az index, vagy null, ha nincs megadva a helye
+     */
+    private SalesTimeIndex timeIndex(MappedByteBuffer buffer) throws IOException {
+        if (timeIndexPath == null)
+            return null;
+        if (timeIndex == null)
+            timeIndex = SalesTimeIndex.load(timeIndexPath, buffer, state.generation);
+        if (timeIndex.indexedOffset < buffer.limit()) {
+            forEachRow(buffer, (int) timeIndex.indexedOffset, buffer.limit(), timeIndex::add);
+            timeIndex.indexedOffset = buffer.limit();
+        }
+        try {
+            timeIndex.save();
+        } catch (IOException e) {
+            e.printStackTrace(); // a memóriában lévő index így is használható, legközelebb újra felépül
+        }
+        return timeIndex;
+    }
+
+    private int segmentEnd() {
+        return (int) manifest.coveredOffset;
+    }
+
+    private static int nextRowStart(MappedByteBuffer buffer, int position) {
+        while (position < buffer.limit() && buffer.get(position - 1) != '\n')
+            position++;
+        return position;
+    }
+
+    private interface RowHandler {
+        void handle(SalesRow row, int offset) throws IOException;
+    }
+
+    private static void forEachRow(MappedByteBuffer buffer, int from, int to, RowHandler handler) throws IOException {
+        SalesRow row = new SalesRow();
+        int position = from, rowIndex = 0;
+        while (position < to) {
+            int next = row.parse(buffer, position, to);
+            if (next == -1) {
+                if (row.columns != 0)
+                    throw new IOException("EOF unexpected @ " + rowIndex + ", " + row.columns);
                 break;
-            case PERIOD_CLOSE_PRODUCT_NAME:
-                if (currentReadPeriod.id != ((Sale.PeriodBillID) billID).periodID)
-                    throw new IOException("period ID mismatch " + currentReadPeriod.id + " vs " +
-                            ((Sale.PeriodBillID) billID).periodID);
-
-                p = currentReadPeriod;
-                p.closeCash = pricePerProduct;
-                p.closeCreditCardAmount = creditCardAmount;
-                p.endTime = timestamp;
-                visitor.endPeriod(p, comment);
+            }
+            if (row.columns != 0) {
+                if (row.columns < MIN_COLS)
+                    throw new IOException("Newline not after " + MIN_COLS + "-" + MAX_COLS + " columns " +
+                            "but " + row.columns + " @ " + rowIndex);
+                if (!row.is(0, HEADER_FIRST_COLUMN))
+                    handler.handle(row, position);
+                rowIndex++;
+            }
+            position = next;
+        }
+    }
+
+    private SalesRecord parseRow(SalesRow row) {
+        if (row.is(1, PERIOD_OPEN_PRODUCT_NAME_BYTES))
+            return new SalesRecord.PeriodOpen(parsePeriodOpen(row), row.stringOrNull(8));
+        else if (row.is(1, PERIOD_CLOSE_PRODUCT_NAME_BYTES))
+            return new SalesRecord.PeriodClose(((Sale.PeriodBillID) row.billID(5)).periodID, row.intValue(3),
+                    row.intOrZero(6), row.timestamp(), row.stringOrNull(8));
+        else if (row.is(1, MODIFY_CASH_PRODUCT_NAME_BYTES))
+            return new SalesRecord.CashModification(row.name(4), row.intValue(3), row.intOrZero(6));
+        else if (row.is(1, STAFF_BILL_PAY_PRODUCT_NAME_BYTES))
+            return new SalesRecord.StaffBillPayment((Sale.StaffBillID) row.billID(5), row.name(4), -row.intValue(3),
+                    row.timestamp());
+        else
+            return new SalesRecord.SaleRecord(parseSale(row));
+    }
+
+    /**
+     * Kell-e a sort feldolgozni a {@code kinds} sorfajtákhoz; csak a termék és a számla oszlopot nézi. A periódus
+     * sorok mindig kellenek, mert az eladásokat a periódusukhoz kell rendelni.
+     */
+    private static boolean needed(SalesRow row, Set<SalesVisitor.RowKind> kinds) {
+        if (row.is(1, PERIOD_OPEN_PRODUCT_NAME_BYTES) || row.is(1, PERIOD_CLOSE_PRODUCT_NAME_BYTES))
+            return true;
+        else if (row.is(1, MODIFY_CASH_PRODUCT_NAME_BYTES))
+            return kinds.contains(SalesVisitor.RowKind.CASH_MODIFICATION);
+        else if (row.is(1, STAFF_BILL_PAY_PRODUCT_NAME_BYTES))
+            return kinds.contains(SalesVisitor.RowKind.STAFF_BILL_PAYMENT);
+        else
+            return kinds.contains(SalesVisitor.RowKind.SALE) ||
+                    kinds.contains(SalesVisitor.RowKind.STAFF_BILL_SALE) && row.isStaffBill(5);
+    }
+
+    private static boolean needed(SalesRecord record, Set<SalesVisitor.RowKind> kinds) {
+        return record instanceof SalesRecord.PeriodOpen || record instanceof SalesRecord.PeriodClose ||
+                delivered(record, kinds);
+    }
+
+    /**
+     * @return megkapja-e a visitor a sort
+     */
+    private static boolean delivered(SalesRecord record, Set<SalesVisitor.RowKind> kinds) {
+        return switch (record) {
+            case SalesRecord.PeriodOpen o -> kinds.contains(SalesVisitor.RowKind.PERIOD);
+            case SalesRecord.PeriodClose c -> kinds.contains(SalesVisitor.RowKind.PERIOD);
+            case SalesRecord.SaleRecord s -> kinds.contains(SalesVisitor.RowKind.SALE) ||
+                    kinds.contains(SalesVisitor.RowKind.STAFF_BILL_SALE) && s.sale().billID instanceof Sale.StaffBillID;
+            case SalesRecord.CashModification m -> kinds.contains(SalesVisitor.RowKind.CASH_MODIFICATION);
+            case SalesRecord.StaffBillPayment p -> kinds.contains(SalesVisitor.RowKind.STAFF_BILL_PAYMENT);
+        };
+    }
+
+    private SellingPeriod currentReadPeriod;
+
+    private void dispatch(SalesRecord record, SalesVisitor visitor) throws IOException {
+        deliver(record, stitch(record), visitor);
+    }
+
+    /**
+     * Mint a {@link #dispatch(SalesRecord, SalesVisitor)}, de a nem kért sorokat csak a periódusok összeillesztéséhez
+     * használja, a visitornak nem adja át; a nem {@link #needed szükséges} sorokat teljesen kihagyja.
+     */
+    private void dispatch(SalesRecord record, SalesVisitor visitor, Set<SalesVisitor.RowKind> kinds)
+            throws IOException {
+        if (!needed(record, kinds))
+            return;
+        SellingPeriod closed = stitch(record);
+        if (delivered(record, kinds))
+            deliver(record, closed, visitor);
+    }
+
+    /**
+     * A sort az olvasás alatt nyitott periódusra alkalmazza.
+     *
+     * @return zárásnál a lezárt periódus, egyébként null
+     */
+    private SellingPeriod stitch(SalesRecord record) throws IOException {
+        if (record instanceof SalesRecord.PeriodOpen o) {
+            currentReadPeriod = o.period();
+        } else if (record instanceof SalesRecord.PeriodClose c) {
+            if (currentReadPeriod.id != c.periodID())
+                throw new IOException("period ID mismatch " + currentReadPeriod.id + " vs " + c.periodID());
+
+            SellingPeriod p = currentReadPeriod;
+            p.closeCash = c.closeCash();
+            p.closeCreditCardAmount = c.closeCreditCardAmount();
+            p.endTime = c.endTime();
+            currentReadPeriod = null;
+            return p;
+        } else if (record instanceof SalesRecord.SaleRecord s) {
+            currentReadPeriod.sales.add(s.sale());
+        }
+        return null;
+    }
+
+    private static void deliver(SalesRecord record, SellingPeriod closedPeriod, SalesVisitor visitor) {
+        switch (record) {
+            case SalesRecord.PeriodOpen o -> visitor.beginPeriod(o.period(), o.comment());
+            case SalesRecord.PeriodClose c -> visitor.endPeriod(closedPeriod, c.comment());
+            case SalesRecord.SaleRecord s -> visitor.sale(s.sale());
+            case SalesRecord.CashModification m -> visitor.modifyCash(m.username(), m.cash(), m.creditCardAmount());
+            case SalesRecord.StaffBillPayment p ->
+                    visitor.staffBillPay(p.bill(), p.administrator(), p.money(), p.timestamp());
+        }
+    }
+
+    private SellingPeriod parsePeriodOpen(SalesRow row) {
+        SellingPeriod p = new SellingPeriod();
+        p.id = ((Sale.PeriodBillID) row.billID(5)).periodID;
+        p.username = row.name(4);
+        p.openCash = -row.intValue(3);
+        p.beginTime = row.timestamp();
+        p.sales = new ArrayList<>();
+        p.openCreditCardAmount = row.intOrZero(6);
+        return p;
+    }
+
+    private Sale parseSale(SalesRow row) {
+        Sale sale = new Sale();
+        sale.timestamp = row.timestamp();
+        sale.seller = row.name(4);
+        sale.article = data.findArticle(row.name(1)).orElse(null);
+        sale.quantity = row.intValue(2);
+        sale.pricePerProduct = row.intValue(3);
+        sale.billID = row.billID(5);
+        sale.paymentID = row.intOrZero(7);
+        return sale;
+    }
+
+    /**
+     * A lezárt periódusokat (a nyitott periódus előtti részt) bináris szegmensekbe írja, így a következő olvasások
+     * ezt a részt nem szövegként dolgozzák fel. Havonta új szegmenst kezd (egy periódus a megnyitása hónapjába
+     * kerül), a korábbiakat nem írja újra, csak az utolsót egészíti ki. A sales.tsv nem változik, az továbbra is a
+     * teljes, exportálható napló. A termékindex még nem mentett sorait is ilyenkor menti.
+     */
+    public synchronized void compact() {
+        saveArticleIndex();
+        if (manifestPath == null)
+            return;
+        writer.flush();
+        long end = state.periodOpen ? state.lastPeriodOffset : state.offset;
+        if (end <= segmentEnd())
+            return;
+
+        SegmentRoller roller = new SegmentRoller();
+        try {
+            MappedByteBuffer buffer = map();
+            forEachRow(buffer, roller.start, (int) end, roller::add);
+            roller.roll(end);
+
+            SalesManifest m = new SalesManifest();
+            m.entries.addAll(roller.entries);
+            m.fileKey = fileKey;
+            m.generation = state.generation;
+            m.coveredOffset = end;
+            m.lastLineChecksum = lastLineChecksum(buffer, (int) end);
+            m.save(manifestPath);
+
+            for (SalesSegment old : segments)
+                if (!roller.segments.contains(old))
+                    Files.deleteIfExists(old.path);
+            manifest = m;
+            segments = roller.segments;
+        } catch (IOException e) {
+            e.printStackTrace(); // csak gyorsítótár, a sales.tsv-ből akkor is minden beolvasható
+        } finally {
+            roller.close();
+        }
+    }
+
+    /**
+     * Törli a tartalomjegyzéket és a szegmenseket, a további olvasások csak a sales.tsv-t használják. A sales.tsv
+     * átírása előtt kell hívni: ahol nincs fájlazonosító, az átírt fájlhoz is érvényesnek tűnnének.
+     */
+    public synchronized void discardCompacted() throws IOException {
+        if (manifestPath == null)
+            return;
+        Files.deleteIfExists(manifestPath);
+        for (SalesManifest.Entry e : manifest.entries)
+            Files.deleteIfExists(manifestPath.resolveSibling(e.fileName()));
+        manifest = new SalesManifest();
+        segments = List.of();
+    }
+
+    /**
+     * A {@link #compact()} új szegmenseit írja: a meglévők közül az utolsót folytatja, és amikor egy periódus új
+     * hónapban nyílik, lezárja az aktuálisat és újat kezd. A kész szegmens a lefedett rész végét is tartalmazó névre
+     * kerül, így a még érvényes tartalomjegyzék által hivatkozott fájlt sosem írja felül.
+     */
+    private final class SegmentRoller implements AutoCloseable {
+
+        final List<SalesManifest.Entry> entries = new ArrayList<>(manifest.entries);
+        final List<SalesSegment> segments = new ArrayList<>(SalesIO.this.segments);
+        private final Path tmp = manifestPath.resolveSibling(manifestPath.getFileName() + ".seg.tmp");
+        private final ZoneId zone = ZoneId.systemDefault();
+
+        private SalesSegment.Writer writer;
+        private YearMonth month;
+        private boolean continueLast = !entries.isEmpty();
+        int start = (int) manifest.coveredOffset;
+
+        void add(SalesRow row, int offset) throws IOException {
+            YearMonth m = row.is(1, PERIOD_OPEN_PRODUCT_NAME_BYTES) ? YearMonth.from(row.timestamp().atZone(zone)) :
+                    null;
+            if (writer == null)
+                open(m);
+            else if (m != null && month != null && !m.equals(month)) {
+                roll(offset);
+                open(m);
+            }
+            if (month == null)
+                month = m;
+            writer.add(row);
+        }
+
+        /**
+         * Megnyitja az írót. Az első alkalommal az utolsó meglévő szegmenst folytatja, hacsak nem új hónap kezdődik.
+         */
+        private void open(YearMonth m) throws IOException {
+            SalesSegment base = null;
+            if (continueLast) {
+                continueLast = false;
+                SalesManifest.Entry last = entries.get(entries.size() - 1);
+                YearMonth lastMonth = last.month().isEmpty() ? null : YearMonth.parse(last.month());
+                if (m == null || lastMonth == null || m.equals(lastMonth)) {
+                    entries.remove(entries.size() - 1);
+                    base = segments.remove(segments.size() - 1);
+                    start = (int) last.startOffset();
+                    month = lastMonth;
+                }
+            }
+            writer = new SalesSegment.Writer(tmp, base);
+        }
+
+        /**
+         * Lezárja az aktuális szegmenst a sales.tsv {@code end} pozíciójánál.
+         */
+        void roll(long end) throws IOException {
+            if (writer == null)
+                return;
+            writer.finish();
+            writer.close();
+            String monthName = month == null ? "" : month.toString();
+            Path path = manifestPath.resolveSibling("sales-" + (month == null ? "0000-00" : monthName) + "-" + end +
+                    ".seg");
+            Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+            SalesSegment segment = SalesSegment.open(path);
+            if (segment == null)
+                throw new IOException("segment written but unreadable: " + path);
+
+            Set<Integer> periodIDs = writer.periodIDs();
+            entries.add(new SalesManifest.Entry(path.getFileName().toString(), monthName, start, end,
+                    writer.fromSecond, writer.toSecond,
+                    periodIDs.stream().mapToInt(Integer::intValue).min().orElse(0),
+                    periodIDs.stream().mapToInt(Integer::intValue).max().orElse(-1)));
+            segments.add(segment);
+            writer = null;
+            month = null;
+            start = (int) end;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (writer != null)
+                    writer.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Az utolsó periódust, a kasszában lévő pénzt és a legnagyobb vásárlásazonosítót adja vissza. A mentett
+     * állapotból dolgozik, a fájlból csak az utolsó periódust olvassa be.
+     */
+    public synchronized LastPeriod readLastPeriod() {
+        try {
+            writer.flush();
+            SellingPeriod[] period = new SellingPeriod[1];
+            if (state.lastPeriodID != 0) {
                 currentReadPeriod = null;
-                break;
-            case MODIFY_CASH_PRODUCT_NAME:
-                visitor.modifyCash(seller, pricePerProduct, creditCardAmount);
-                break;
-            case STAFF_BILL_PAY_PRODUCT_NAME:
-                visitor.staffBillPay((Sale.StaffBillID) billID, seller, -pricePerProduct, timestamp);
-                break;
-            default:
-                Sale sale = new Sale();
-                sale.timestamp = timestamp;
-                sale.seller = seller;
-                sale.article = data.findArticle(productName).orElse(null);
-                sale.quantity = quantity;
-                sale.pricePerProduct = pricePerProduct;
-                sale.billID = billID;
-                sale.paymentID = purchaseID;
-                currentReadPeriod.sales.add(sale);
-                visitor.sale(sale);
-                break;
+                MappedByteBuffer buffer = map();
+                SalesVisitor visitor = new SalesVisitor() {
+                    @Override
+                    public void beginPeriod(SellingPeriod p, String comment) {
+                        period[0] = p;
+                    }
+                };
+                forEachRow(buffer, (int) state.lastPeriodOffset, buffer.limit(),
+                        (row, offset) -> dispatch(parseRow(row), visitor));
+                if (period[0] == null || period[0].id != state.lastPeriodID)
+                    throw new IOException("checkpoint out of sync: no period " + state.lastPeriodID + " @ " +
+                            state.lastPeriodOffset);
+            }
+            return new LastPeriod(period[0], state.cash, state.creditCardAmount, state.lastPaymentID);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public record LastPeriod(SellingPeriod period, int cash, int creditCardAmount, int lastPaymentID) {
+    }
+
+    private SalesCheckpoint loadCheckpoint() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            SalesCheckpoint c = new SalesCheckpoint();
+            c.fileKey = fileKey;
+            c.generation = newGeneration();
+            return c;
+        }
+
+        MappedByteBuffer buffer = map();
+        SalesCheckpoint saved = checkpointPath == null ? null : SalesCheckpoint.load(checkpointPath);
+        SalesCheckpoint c;
+        if (saved != null && saved.fileKey.equals(fileKey) && saved.offset <= size &&
+                saved.lastLineChecksum == lastLineChecksum(buffer, (int) saved.offset)) {
+            forEachRow(buffer, (int) saved.offset, buffer.limit(), (row, offset) -> apply(saved, row, offset));
+            c = saved;
+        } else {
+            c = scanTail(buffer);
+            c.fileKey = fileKey;
+            c.generation = newGeneration();
+        }
+
+        c.offset = size;
+        c.lastLineChecksum = lastLineChecksum(buffer, (int) size);
+        if (checkpointPath != null)
+            c.save(checkpointPath);
+        return c;
+    }
+
+    /**
+     * Véletlen, így egy korábbi sales.tsv ottmaradt mellékfájljainak generációjával sem egyezik. Mentett állapot
+     * nélkül a generáció sem marad meg, ilyenkor 0, és csak a fájlazonosító és az ellenőrzőösszeg számít.
+     */
+    private long newGeneration() {
+        return checkpointPath == null ? 0 : ThreadLocalRandom.current().nextLong();
+    }
+
+    private static void apply(SalesCheckpoint c, SalesRow row, int offset) {
+        if (row.is(1, PERIOD_OPEN_PRODUCT_NAME_BYTES))
+            c.periodOpened(((Sale.PeriodBillID) row.billID(5)).periodID, offset);
+        else if (row.is(1, PERIOD_CLOSE_PRODUCT_NAME_BYTES))
+            c.periodClosed(row.intValue(3), row.intOrZero(6));
+        else if (row.is(1, MODIFY_CASH_PRODUCT_NAME_BYTES))
+            c.cashModified(row.intValue(3), row.intOrZero(6));
+        else if (!row.is(1, STAFF_BILL_PAY_PRODUCT_NAME_BYTES))
+            c.paid(row.intOrZero(7));
+    }
+
+    /**
+     * Mentett állapot nélkül a fájl végéről visszafelé olvasva állítja elő az állapotot, és megáll, amint megvan az
+     * utolsó periódushatár, így ez sem függ attól, mekkora a történet.
+     */
+    private static SalesCheckpoint scanTail(MappedByteBuffer buffer) throws IOException {
+        SalesCheckpoint c = new SalesCheckpoint();
+        SalesRow row = new SalesRow();
+        boolean periodFound = false, periodClosed = false, cashFound = false;
+
+        int end = buffer.limit();
+        while (end > 0 && (!periodFound || !cashFound || c.lastPaymentID == 0)) {
+            int start = end - 1;
+            if (buffer.get(start) == '\n')
+                start--;
+            while (start >= 0 && buffer.get(start) != '\n')
+                start--;
+            start++;
+
+            if (row.parse(buffer, start, end) == -1 && row.columns != 0)
+                throw new IOException("EOF unexpected @ " + start + ", " + row.columns);
+            end = start;
+
+            if (row.columns == 0)
+                continue;
+            if (row.columns < MIN_COLS)
+                throw new IOException("Newline not after " + MIN_COLS + "-" + MAX_COLS + " columns " +
+                        "but " + row.columns + " @ " + start);
+
+            if (row.is(1, PERIOD_OPEN_PRODUCT_NAME_BYTES)) {
+                if (!periodFound) {
+                    c.periodOpened(((Sale.PeriodBillID) row.billID(5)).periodID, start);
+                    c.periodOpen = !periodClosed;
+                    periodFound = true;
+                }
+            } else if (row.is(1, PERIOD_CLOSE_PRODUCT_NAME_BYTES) || row.is(1, MODIFY_CASH_PRODUCT_NAME_BYTES)) {
+                if (!cashFound) {
+                    c.cashModified(row.intValue(3), row.intOrZero(6));
+                    cashFound = true;
+                }
+                if (row.is(1, PERIOD_CLOSE_PRODUCT_NAME_BYTES) && !periodFound)
+                    periodClosed = true;
+            } else if (!row.is(1, STAFF_BILL_PAY_PRODUCT_NAME_BYTES) && !row.is(0, HEADER_FIRST_COLUMN)) {
+                // a vásárlásazonosítók nem csökkennek, így az utolsó nem nulla a legnagyobb
+                if (c.lastPaymentID == 0)
+                    c.paid(row.intOrZero(7));
+            }
         }
+        return c;
     }
 
-    private void writeImpl(LocalDateTime timestamp, String productName, int quantity, int pricePerProduct,
-                           String seller, Sale.BillID periodID, int creditCardAmount, int purchaseID, String comment) {
-        writeImpl(timestamp + "\t" + productName + "\t" + quantity + "\t" + pricePerProduct + "\t" + seller + "\t" +
-                (periodID == null ? "-" : periodID.toString()) +
-                (creditCardAmount == -1 ? "\t-" : "\t" + creditCardAmount) +
-                (purchaseID == 0 ? "\t-" : "\t" + purchaseID) +
-                (comment == null ? "" : "\t" + comment) +
-                "\n");
+    /**
+     * @return a mellékfájl által lefedett rész, a sales.tsv első {@code offset} bájtja még a mostani fájlban van-e: a
+     * generáció és a fájlazonosító ugyanaz, a fájl legalább ekkora, és az {@code offset}-nél végződő sor
+     * ellenőrzőösszege stimmel
+     */
+    private boolean isPrefix(ByteBuffer buffer, long savedGeneration, String savedFileKey, long offset,
+                             int savedLastLineChecksum) {
+        return savedGeneration == state.generation && savedFileKey.equals(fileKey) && offset <= buffer.limit() &&
+                lastLineChecksum(buffer, (int) offset) == savedLastLineChecksum;
     }
 
-    private void writeImpl(String l) {
+    static int lastLineChecksum(ByteBuffer buffer, int end) {
+        int start = end - 1;
+        while (start > 0 && buffer.get(start - 1) != '\n')
+            start--;
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(Math.max(start, 0), end - Math.max(start, 0)));
+        return (int) crc.getValue();
+    }
+
+    private void saveCheckpoint() {
+        if (checkpointPath == null)
+            return;
+        writer.flush();
+        // a state már a meg nem írt sorokat is tartalmazza; a következő indításkor a fájlból áll elő
+        if (writer.failure() != null)
+            return;
         try {
-            channel.write(ByteBuffer.wrap(l.getBytes(UTF_8)));
+            state.save(checkpointPath);
         } catch (IOException e) {
-            throw new RuntimeException(e); // TODO
+            e.printStackTrace(); // csak gyorsítótár, a következő indításkor újra előáll
         }
     }
 
-    public void close() throws IOException {
+    private MappedByteBuffer map() throws IOException {
+        long size = channel.size();
+        if (size > MAX_FILE_SIZE)
+            throw new IOException("sales file grew to " + size + " bytes, larger than the " + MAX_FILE_SIZE +
+                    " bytes memory-mapped reading supports");
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    private CompletableFuture<Void> writeImpl(Instant timestamp, String productName, int quantity,
+                                              int pricePerProduct, String seller, Sale.BillID periodID,
+                                              int creditCardAmount, int purchaseID, String comment) {
+        encoder.clear();
+        encoder.row(timestamp, productName, quantity, pricePerProduct, seller, periodID, creditCardAmount, purchaseID,
+                comment);
+        return writeImpl();
+    }
+
+    /**
+     * Átadja az írónak az {@link #encoder}-be írt egy vagy több teljes sort.
+     */
+    private CompletableFuture<Void> writeImpl() {
+        if (writer.failure() != null)
+            return CompletableFuture.failedFuture(new IOException("sales writer failed earlier", writer.failure()));
+        ByteBuffer rows = encoder.encoded();
+        crc.reset();
+        crc.update(rows.position(encoder.lastRowStart()));
+        rows.position(0);
+        state.offset += rows.remaining();
+        state.lastLineChecksum = (int) crc.getValue();
+        return writer.append(rows);
+    }
+
+    public synchronized void close() throws IOException {
+        saveCheckpoint();
+        saveArticleIndex();
+        writer.close();
         channel.close();
     }
+
+    /**
+     * Lezárja a fájlt, a mellékfájlok mentése nélkül, és törli az összeset: a futó állapotot, a tartalomjegyzéket a
+     * szegmensekkel, a két indexet és a {@link #readResumable} mentett állapotait. A sales.tsv átírása előtt kell
+     * hívni, mert ezek az átírt fájlhoz már nem tartoznak; ha valamelyik mégis megmarad, a futó állapot nélkül új
+     * generáció indul, így az sem használható.
+     */
+    public synchronized void closeDiscardingSidecars() throws IOException {
+        writer.close();
+        channel.close();
+        discardCompacted();
+        for (Path p : new Path[]{checkpointPath, timeIndexPath, articleIndexPath})
+            if (p != null)
+                Files.deleteIfExists(p);
+        if (aggregatesPath != null && Files.isDirectory(aggregatesPath)) {
+            List<Path> files;
+            try (Stream<Path> list = Files.list(aggregatesPath)) {
+                files = list.toList();
+            }
+            for (Path p : files)
+                Files.delete(p);
+            Files.delete(aggregatesPath);
+        }
+    }
 }
@@ -0,0 +1,425 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+import arunyilvantarto.events.SellingEvent;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A sales.tsv tartalma a memóriában. Induláskor egyszer beolvassa a fájlt, utána a {@link Main#onEvent} minden
+ * eladási eseményt rajta keresztül ír ki, és alkalmaz rajta is, így a képernyőknek nem kell újra végigolvasniuk a
+ * fájlt. Az eladásokat
+ * oszloposan, egy {@link SalesColumns}-ban tárolja, a periódusok {@code sales} listája itt mindig null. A periódusok
+ * bevételét lezáráskor kiszámolja, így az a tárolt eladások nélkül is megvan.
+ */
+public class SalesLedger {
+
+    /**
+     * Hol vannak a lezárt periódusok eladásai.
+     */
+    public enum History {
+        HEAP,
+
+        /**
+         * Direkt pufferben, lásd {@link SalesColumns#SalesColumns(boolean)}.
+         */
+        DIRECT,
+
+        /**
+         * Csak a fájlban: a memóriában csak az utolsó periódus eladásai maradnak, a többit a
+         * {@link #periodSales} kérésre a {@link SalesIO#readPeriod}-dal olvassa be.
+         */
+        ON_DISK
+    }
+
+    // az első betöltési kísérlet után teljesül, akkor is, ha nem sikerült
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+    private final History history;
+    private SalesIO salesIO;
+    // a legutóbbi betöltés hibája, vagy null, ha sikerült
+    private RuntimeException loadFailure;
+    // betöltés közben a fájl végéről olvasott utolsó periódus, hogy a bejelentkezésnek ne kelljen a teljes beolvasást
+    // megvárnia; írni úgyis csak a betöltés után lehet
+    private volatile SalesIO.LastPeriod loadingLastPeriod;
+    // a legutóbbi sikeres betöltés eredménye az azóta alkalmazott eseményekkel; újrabetöltés közben a régi marad
+    private State state;
+    // betöltés közben érkezett események, a betöltés végén írjuk ki és alkalmazzuk őket; null, ha nem töltünk be
+    private List<QueuedEvent> queued;
+
+    public SalesLedger() {
+        this(History.HEAP);
+    }
+
+    public SalesLedger(History history) {
+        this.history = history;
+    }
+
+    /**
+     * Beolvassa (vagy a fájl átírása után újraolvassa) a teljes sales.tsv-t. Ha nem sikerül, a következő sikeres
+     * betöltésig a lekérdezések {@link IllegalStateException}-t dobnak, az eseményeket pedig nem alkalmazza: azok a
+     * fájlban megvannak, így az újabb betöltés beolvassa őket.
+     * <p>
+     * A beolvasás nem tartja a zárat: közben a lekérdezések az előző betöltés állapotát látják, az eseményeket pedig a
+     * {@link #write} sorba állítja, és a beolvasás után írjuk ki és alkalmazzuk őket, így egyik sem várja meg.
+     */
+    public void load(SalesIO salesIO) {
+        synchronized (this) {
+            if (queued == null)
+                queued = new ArrayList<>();
+        }
+        try {
+            loadingLastPeriod = salesIO.readLastPeriod();
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // csak gyorsítás, a lekérdezések megvárják a teljes beolvasást
+        }
+
+        State loading = null;
+        RuntimeException failure = null;
+        try {
+            State s = new State();
+            salesIO.readParallel(new SalesVisitor() {
+                @Override
+                public void beginPeriod(SellingPeriod period, String comment) {
+                    s.periodBegun(period);
+                }
+
+                @Override
+                public void sale(Sale sale) {
+                    s.periodSale(sale);
+                }
+
+                @Override
+                public void endPeriod(SellingPeriod period, String comment) {
+                    s.periodClosed(period);
+                }
+
+                @Override
+                public void modifyCash(String username, int cash, int creditCardAmount) {
+                    s.cashModified(cash, creditCardAmount);
+                }
+
+                @Override
+                public void staffBillPay(Sale.StaffBillID bill, String administrator, int money, Instant timestamp) {
+                    s.staffBillPaid(new StaffBillPayment(bill, administrator, money, timestamp));
+                }
+            });
+            s.dailyRollups = salesIO.readResumable(() -> new SalesDailyRollups(ZoneId.systemDefault()));
+            loading = s;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        synchronized (this) {
+            this.salesIO = salesIO;
+            state = loading;
+            loadFailure = failure;
+            loadingLastPeriod = null;
+            List<QueuedEvent> events = queued;
+            queued = null;
+            for (QueuedEvent e : events)
+                writeNow(e.salesIO(), e.event()).whenComplete((v, t) -> {
+                    if (t != null)
+                        e.written().completeExceptionally(t);
+                    else
+                        e.written().complete(null);
+                });
+        }
+        loaded.complete(null);
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Kiírja és alkalmazza az eladási eseményt. Betöltés közben csak sorba állítja, és a beolvasás után írjuk ki, így
+     * az esemény vagy már benne van a beolvasott fájlban, vagy a beolvasás után alkalmazzuk, kétszer soha. Amíg
+     * nincs sikeres betöltés, csak kiírja.
+     *
+     * @return mint a {@link SalesIO#writeEvent}
+     */
+    public synchronized CompletableFuture<Void> write(SalesIO salesIO, SellingEvent event) {
+        if (queued != null) {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            queued.add(new QueuedEvent(salesIO, event, written));
+            return written;
+        }
+        return writeNow(salesIO, event);
+    }
+
+    private CompletableFuture<Void> writeNow(SalesIO salesIO, SellingEvent event) {
+        CompletableFuture<Void> written;
+        try {
+            written = salesIO.writeEvent(event);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (state != null && loadFailure == null)
+            state.apply(event);
+        return written;
+    }
+
+    /**
+     * Egy betöltés eredménye, a betöltés óta alkalmazott eseményekkel.
+     */
+    private class State {
+
+        final List<SellingPeriod> periods = new ArrayList<>();
+        final Map<SellingPeriod, Integer> openCashMismatches = new HashMap<>(), closeCashMismatches = new HashMap<>();
+        SellingPeriod currentPeriod;
+        int cash, creditCardAmount, lastPaymentID;
+        SalesColumns sales = new SalesColumns(history == History.DIRECT);
+
+        // periódusazonosító -> bevétel, a lezárt periódusokra
+        final Map<Integer, Integer> revenues = new HashMap<>();
+
+        // a személyzeti számlára írt eladások, ON_DISK esetén is megmaradnak; Sale objektum csak lekérdezéskor lesz
+        final SalesColumns staffBillSales = new SalesColumns(history != History.HEAP);
+        // felhasználónév -> a személyzeti számláját érintő vásárlások és befizetések sorrendben
+        final Map<String, StaffBill> staffBills = new HashMap<>();
+
+        // a betöltéskor a mentett állapotból folytatva olvassuk, utána az eseményekkel frissítjük
+        SalesDailyRollups dailyRollups;
+
+        void apply(SellingEvent event) {
+            switch (event) {
+                case SellingEvent.BeginPeriodEvent e -> periodBegun(e.period());
+                case SellingEvent.SaleEvent e -> appliedSale(e.sale());
+                case SellingEvent.PaymentEvent e -> e.sales().forEach(this::appliedSale);
+                case SellingEvent.EndPeriodEvent e -> periodClosed(e.period());
+                case SellingEvent.ModifyCashEvent e -> cashModified(e.cash(), e.creditCardAmount());
+                case SellingEvent.StaffBillPay e ->
+                        staffBillPaid(new StaffBillPayment(e.bill(), e.administrator(), e.money(), Instant.now()));
+            }
+        }
+
+        void periodBegun(SellingPeriod period) {
+            // saját példány, az eladások a SalesColumns-ba kerülnek
+            SellingPeriod p = period.copy();
+            p.sales = null;
+            if (history == History.ON_DISK)
+                sales = new SalesColumns();
+            if (p.openCash != cash)
+                openCashMismatches.put(p, cash);
+            periods.add(p);
+            currentPeriod = p;
+        }
+
+        void periodSale(Sale sale) {
+            sales.add(sale, currentPeriod == null ? 0 : currentPeriod.id);
+            sold(sale);
+        }
+
+        private void appliedSale(Sale sale) {
+            periodSale(sale);
+            dailyRollups.sale(sale);
+        }
+
+        private void sold(Sale sale) {
+            lastPaymentID = Math.max(lastPaymentID, sale.paymentID);
+            if (sale.billID instanceof Sale.StaffBillID bill) {
+                staffBills.computeIfAbsent(bill.username, k -> new StaffBill()).add(staffBillSales.size());
+                staffBillSales.add(sale, currentPeriod == null ? 0 : currentPeriod.id);
+            }
+        }
+
+        void periodClosed(SellingPeriod period) {
+            if (currentPeriod == null || currentPeriod.id != period.id)
+                throw new IllegalStateException("period " + period.id + " is not open");
+            SellingPeriod p = currentPeriod;
+            p.endTime = period.endTime;
+            p.closeCash = period.closeCash;
+            p.closeCreditCardAmount = period.closeCreditCardAmount;
+
+            int revenue = sales.periodRows(p.id).revenue();
+            revenues.put(p.id, revenue);
+            int c = revenue + p.openCash - (p.closeCreditCardAmount - p.openCreditCardAmount);
+            if (p.closeCash != c)
+                closeCashMismatches.put(p, c);
+            cash = p.closeCash;
+            creditCardAmount = p.closeCreditCardAmount;
+            currentPeriod = null;
+        }
+
+        void cashModified(int cash, int creditCardAmount) {
+            this.cash = cash;
+            this.creditCardAmount = creditCardAmount;
+        }
+
+        void staffBillPaid(StaffBillPayment payment) {
+            StaffBill bill = staffBills.computeIfAbsent(payment.bill().username, k -> new StaffBill());
+            bill.add(~bill.payments.size());
+            bill.payments.add(payment);
+        }
+    }
+
+    /**
+     * Egy felhasználó személyzeti számlájának bejegyzései: nemnegatív érték a {@link State#staffBillSales} egy sora,
+     * negatív {@code ~i} a {@code payments} i-edik eleme.
+     */
+    private static class StaffBill {
+
+        int[] entries = new int[16];
+        int size;
+        final List<StaffBillPayment> payments = new ArrayList<>();
+
+        void add(int entry) {
+            if (size == entries.length)
+                entries = Arrays.copyOf(entries, size * 2);
+            entries[size++] = entry;
+        }
+    }
+
+    public List<SellingPeriod> periods() {
+        loaded.join();
+        synchronized (this) {
+            checkLoaded();
+            return new ArrayList<>(state.periods);
+        }
+    }
+
+    /**
+     * @return periódus -> a kasszában várt nyitó készpénz, ahol a nyitó készpénz ettől eltért
+     */
+    public Map<SellingPeriod, Integer> openCashMismatches() {
+        loaded.join();
+        synchronized (this) {
+            checkLoaded();
+            return new HashMap<>(state.openCashMismatches);
+        }
+    }
+
+    /**
+     * @return periódus -> az eladásokból számolt záró készpénz, ahol a záró készpénz ettől eltért
+     */
+    public Map<SellingPeriod, Integer> closeCashMismatches() {
+        loaded.join();
+        synchronized (this) {
+            checkLoaded();
+            return new HashMap<>(state.closeCashMismatches);
+        }
+    }
+
+    /**
+     * Betöltés közben a fájl végéről olvasott állapotot adja, így nem kell megvárnia a teljes beolvasást.
+     *
+     * @return az utolsó periódus másolata az eladásaival, a kassza állapota és a legnagyobb vásárlásazonosító
+     */
+    public SalesIO.LastPeriod lastPeriod() {
+        SalesIO.LastPeriod loading = loadingLastPeriod;
+        if (loading != null)
+            return new SalesIO.LastPeriod(loading.period() == null ? null : loading.period().copy(), loading.cash(),
+                    loading.creditCardAmount(), loading.lastPaymentID());
+        loaded.join();
+        synchronized (this) {
+            checkLoaded();
+            SellingPeriod last = null;
+            if (!state.periods.isEmpty()) {
+                last = state.periods.get(state.periods.size() - 1).copy();
+                last.sales = new ArrayList<>();
+                SalesColumns.Cursor rows = state.sales.periodRows(last.id);
+                while (rows.next())
+                    last.sales.add(rows.toSale());
+            }
+            return new SalesIO.LastPeriod(last, state.cash, state.creditCardAmount, state.lastPaymentID);
+        }
+    }
+
+    /**
+     * @return a periódus eddigi eladásai; a később hozzáfűzötteket nem látja. {@link History#ON_DISK} esetén egy
+     * korábbi periódusnál a fájlból olvas.
+     */
+    public SalesColumns.Cursor periodSales(SellingPeriod period) {
+        loaded.join();
+        SalesIO io;
+        synchronized (this) {
+            checkLoaded();
+            List<SellingPeriod> periods = state.periods;
+            if (history != History.ON_DISK || !periods.isEmpty() && periods.get(periods.size() - 1).id == period.id)
+                return state.sales.periodRows(period.id);
+            io = salesIO;
+        }
+        SalesColumns columns = new SalesColumns();
+        io.readPeriod(period.id, new SalesVisitor() {
+            @Override
+            public Set<RowKind> rowKinds() {
+                return EnumSet.of(RowKind.SALE);
+            }
+
+            @Override
+            public void sale(Sale sale) {
+                columns.add(sale, period.id);
+            }
+        });
+        return columns.rows();
+    }
+
+    /**
+     * Ugyanaz, mint a {@link SellingPeriod#revenue()}; lezárt periódusnál a lezáráskor számolt érték.
+     */
+    public int revenue(SellingPeriod period) {
+        loaded.join();
+        synchronized (this) {
+            checkLoaded();
+            Integer revenue = state.revenues.get(period.id);
+            if (revenue != null)
+                return revenue;
+        }
+        return periodSales(period).revenue();
+    }
+
+    /**
+     * A felhasználó személyzeti számláját érintő vásárlásokat és befizetéseket játssza vissza a visitornak. A
+     * {@link Sale} objektumokat csak itt, visszajátszás közben hozza létre.
+     */
+    public void visitStaffBill(String username, SalesVisitor visitor) {
+        loaded.join();
+        int[] entries;
+        List<StaffBillPayment> payments;
+        SalesColumns.Cursor sales;
+        synchronized (this) {
+            checkLoaded();
+            StaffBill bill = state.staffBills.get(username);
+            entries = bill == null ? new int[0] : Arrays.copyOf(bill.entries, bill.size);
+            payments = bill == null ? List.of() : new ArrayList<>(bill.payments);
+            sales = state.staffBillSales.rows();
+        }
+        visitor.begin();
+        for (int entry : entries) {
+            if (entry >= 0) {
+                visitor.sale(sales.at(entry).toSale());
+            } else {
+                StaffBillPayment p = payments.get(~entry);
+                visitor.staffBillPay(p.bill(), p.administrator(), p.money(), p.timestamp());
+            }
+        }
+        visitor.end();
+    }
+
+    /**
+     * @return a két nap között (mindkettőt beleértve) azok a napok, amikor bármit eladtak, és a termék aznapi
+     * összesítője
+     */
+    public SortedMap<LocalDate, SalesDailyRollups.Rollup> articleDailyRollups(String articleName, LocalDate from,
+                                                                               LocalDate to) {
+        loaded.join();
+        synchronized (this) {
+            checkLoaded();
+            return state.dailyRollups.article(articleName, from, to);
+        }
+    }
+
+    private void checkLoaded() {
+        if (loadFailure != null)
+            throw new IllegalStateException("sales could not be loaded", loadFailure);
+    }
+
+    private record QueuedEvent(SalesIO salesIO, SellingEvent event, CompletableFuture<Void> written) {
+    }
+
+    private record StaffBillPayment(Sale.StaffBillID bill, String administrator, int money, Instant timestamp) {
+    }
+}
@@ -0,0 +1,112 @@
+package arunyilvantarto;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A sales.tsv binárisra tömörített elejének tartalomjegyzéke. A tömörített rész havi szegmensekre van osztva (egy
+ * periódus abba a hónapba kerül, amikor megnyitották); itt van mindegyik fájlneve, a sales.tsv-ből lefedett
+ * bájttartománya, az időtartománya és a periódusazonosítók tartománya, így egy szűkített olvasás a többi szegmenst
+ * meg sem nyitja. A szegmensek együtt a sales.tsv első {@link #coveredOffset} bájtját fedik le; hogy még ugyanahhoz a
+ * fájlhoz tartoznak-e, azt a sales.tsv generációjából, a fájlazonosítóból és az ott végződő sor CRC32-jéből látjuk.
+ */
+final class SalesManifest {
+
+    private static final int MAGIC = 0x41524D33;
+
+    /**
+     * A sales.tsv fájlazonosítója, vagy üres, ha nem ismert.
+     */
+    String fileKey = "";
+
+    /**
+     * A sales.tsv generációja, lásd {@link SalesCheckpoint#generation}.
+     */
+    long generation;
+    long coveredOffset;
+    /**
+     * A {@link #coveredOffset}-nél végződő sor CRC32-je.
+     */
+    int lastLineChecksum;
+    final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @param month        a szegmens periódusainak hónapja ({@code YearMonth.toString()}), vagy üres, ha nincs benne
+     *                     periódus
+     * @param startOffset  a sales.tsv-ből lefedett rész eleje
+     * @param endOffset    a sales.tsv-ből lefedett rész vége (kizárólag)
+     * @param fromSecond   a legkorábbi időpont a szegmensben, epoch másodpercben
+     * @param toSecond     a legkésőbbi időpont a szegmensben, epoch másodpercben; kisebb a {@code fromSecond}-nál, ha
+     *                     egyik rekordnak sincs időpontja
+     * @param firstPeriodID az első periódus azonosítója
+     * @param lastPeriodID  az utolsó periódus azonosítója; kisebb a {@code firstPeriodID}-nál, ha nincs periódus
+     */
+    record Entry(String fileName, String month, long startOffset, long endOffset, long fromSecond, long toSecond,
+                 int firstPeriodID, int lastPeriodID) {
+
+        /**
+         * @return van-e a szegmensben a [from, to) intervallumba eső időpont; másodperc pontossággal, kétes
+         * esetben igaz
+         */
+        boolean overlaps(Instant from, Instant to) {
+            return fromSecond <= toSecond && toSecond >= from.getEpochSecond() && fromSecond <= to.getEpochSecond();
+        }
+
+        boolean overlapsPeriods(int fromPeriodID, int toPeriodID) {
+            return firstPeriodID <= lastPeriodID && lastPeriodID >= fromPeriodID && firstPeriodID <= toPeriodID;
+        }
+    }
+
+    /**
+     * @return a beolvasott tartalomjegyzék, vagy null, ha nincs ilyen fájl, vagy nem ismert formátumú
+     */
+    static SalesManifest load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                return null;
+
+            SalesManifest m = new SalesManifest();
+            m.fileKey = in.readUTF();
+            m.generation = in.readLong();
+            m.coveredOffset = in.readLong();
+            m.lastLineChecksum = in.readInt();
+            for (int i = in.readInt(); i > 0; i--)
+                m.entries.add(new Entry(in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong(),
+                        in.readLong(), in.readInt(), in.readInt()));
+            return m;
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    void save(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(fileKey);
+            out.writeLong(generation);
+            out.writeLong(coveredOffset);
+            out.writeInt(lastLineChecksum);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeUTF(e.fileName);
+                out.writeUTF(e.month);
+                out.writeLong(e.startOffset);
+                out.writeLong(e.endOffset);
+                out.writeLong(e.fromSecond);
+                out.writeLong(e.toSecond);
+                out.writeInt(e.firstPeriodID);
+                out.writeInt(e.lastPeriodID);
+            }
+        }
+        Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,103 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Egy olvasás alatt a sorokban ismétlődő nevek (eladó, termék, személyzeti számla) közös példányai. A keresés a
+ * nyers UTF-8 bájtokkal megy, így egy már látott névhez nem jön létre új {@link String}. Nem szálbiztos.
+ */
+final class SalesNameCache {
+
+    // ennél több különböző név után az újakat már nem jegyzi meg
+    private static final int MAX_NAMES = 4096;
+
+    private byte[][] keys = new byte[64][];
+    private String[] names = new String[64];
+    private Sale.StaffBillID[] staffBills = new Sale.StaffBillID[64];
+    private int size;
+
+    String name(ByteBuffer buffer, int start, int end) {
+        int slot = slot(buffer, start, end);
+        return slot == -1 ? decode(buffer, start, end) : names[slot];
+    }
+
+    Sale.StaffBillID staffBill(ByteBuffer buffer, int start, int end) {
+        int slot = slot(buffer, start, end);
+        if (slot == -1)
+            return new Sale.StaffBillID(decode(buffer, start, end));
+        if (staffBills[slot] == null)
+            staffBills[slot] = new Sale.StaffBillID(names[slot]);
+        return staffBills[slot];
+    }
+
+    /**
+     * @return a név helye a táblában, szükség esetén felvéve, vagy -1, ha a tábla betelt
+     */
+    private int slot(ByteBuffer buffer, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + buffer.get(i);
+
+        int mask = keys.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte[] key = keys[slot];
+            if (key == null)
+                break;
+            if (equals(key, buffer, start, end))
+                return slot;
+        }
+
+        if (size == MAX_NAMES)
+            return -1;
+        if (2 * (size + 1) > keys.length)
+            grow();
+        byte[] key = new byte[end - start];
+        buffer.get(start, key);
+        int slot = insert(key, hash, new String(key, UTF_8), null);
+        size++;
+        return slot;
+    }
+
+    private int insert(byte[] key, int hash, String name, Sale.StaffBillID staffBill) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null)
+            slot = (slot + 1) & mask;
+        keys[slot] = key;
+        names[slot] = name;
+        staffBills[slot] = staffBill;
+        return slot;
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        String[] oldNames = names;
+        Sale.StaffBillID[] oldStaffBills = staffBills;
+        keys = new byte[oldKeys.length * 2][];
+        names = new String[oldKeys.length * 2];
+        staffBills = new Sale.StaffBillID[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != null)
+                insert(oldKeys[i], Arrays.hashCode(oldKeys[i]), oldNames[i], oldStaffBills[i]);
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buffer, int start, int end) {
+        if (key.length != end - start)
+            return false;
+        for (int i = 0; i < key.length; i++)
+            if (key[i] != buffer.get(start + i))
+                return false;
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, UTF_8);
+    }
+}
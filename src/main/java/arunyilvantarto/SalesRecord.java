@@ -0,0 +1,38 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+
+import java.time.Instant;
+
+/**
+ * A sales.tsv egy sora feldolgozva, de még a periódusokhoz rendelés előtt, ahogy a {@link SalesIO#stream()} adja. A
+ * {@link SalesVisitor}-ral szemben a NYITÁS rekord periódusának eladáslistája üres marad, a zárás adatai csak a ZÁRÁS
+ * rekordban vannak, és az eladás rekordokból sem derül ki, melyik periódushoz tartoznak: aki erre kíváncsi, magának
+ * kell a rekordok sorrendjéből összeillesztenie.
+ */
+public sealed interface SalesRecord {
+
+    /**
+     * NYITÁS; a periódus eladáslistája ekkor még üres.
+     */
+    record PeriodOpen(SellingPeriod period, String comment) implements SalesRecord {
+    }
+
+    /**
+     * ZÁRÁS; az olvasás az éppen nyitott periódusra alkalmazza.
+     */
+    record PeriodClose(int periodID, int closeCash, int closeCreditCardAmount, Instant endTime, String comment)
+            implements SalesRecord {
+    }
+
+    record SaleRecord(Sale sale) implements SalesRecord {
+    }
+
+    record CashModification(String username, int cash, int creditCardAmount) implements SalesRecord {
+    }
+
+    record StaffBillPayment(Sale.StaffBillID bill, String administrator, int money, Instant timestamp)
+            implements SalesRecord {
+    }
+}
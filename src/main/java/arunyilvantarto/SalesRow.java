@@ -0,0 +1,239 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Egy sales.tsv sor mezőhatárai a nyers UTF-8 bájtokban. A mezőket csak akkor dekódolja, ha valaki lekéri őket,
+ * így egy példány újrahasználható a fájl összes sorához.
+ */
+final class SalesRow {
+
+    /**
+     * A sorokat daraboló vektoros kereső, vagy null, és akkor bájtonként keres. Csak akkor töltjük be, ha az
+     * {@code arunyilvantarto.vectorTokenizer} értéke {@code true}, a jdk.incubator.vector modul be van töltve, és a
+     * src/vector fordítása az osztályútvonalon van.
+     */
+    static final SalesDelimiterScanner VECTOR_SCANNER = loadVectorScanner();
+    static final boolean VECTORIZED = VECTOR_SCANNER != null;
+
+    private static final byte[] CARD_SUFFIX = "-CARD".getBytes(UTF_8);
+    private static final int MAX_CACHED_PERIOD_ID = 1 << 20;
+
+    private final int[] starts = new int[SalesIO.MAX_COLS];
+    private final int[] ends = new int[SalesIO.MAX_COLS];
+    private final SalesTimestampDecoder timestamps = new SalesTimestampDecoder();
+    private final SalesNameCache names = new SalesNameCache();
+    private Sale.PeriodBillID[] periodBillIDs = new Sale.PeriodBillID[256];
+    private byte[] scratch = new byte[64];
+    private ByteBuffer buffer;
+
+    // az utolsó vektoros blokk elválasztói, lásd SalesDelimiterScanner.delimiters
+    private final long[] delimiterWords = VECTORIZED ? new long[VECTOR_SCANNER.width() / 8] : null;
+    private ByteBuffer scannedBuffer;
+    private int scannedPosition;
+
+    int columns;
+
+    /**
+     * Feldarabolja a {@code from} pozíción kezdődő sort. Az üres mezőket, ahogy eddig is, kihagyja. Ha a következő
+     * hívás ugyanabban a pufferben az előző sorvége után folytatja, a már átnézett blokkot nem olvassa újra, ezért a
+     * puffer tartalma a hívások között nem változhat.
+     *
+     * @return a sorvége utáni pozíció, vagy -1, ha {@code limit} előtt nem volt sorvége
+     */
+    int parse(ByteBuffer buffer, int from, int limit) throws IOException {
+        this.buffer = buffer;
+        columns = 0;
+        int start = from, i = from;
+        if (VECTORIZED) {
+            int width = VECTOR_SCANNER.width();
+            boolean scanned = buffer == scannedBuffer && from >= scannedPosition && from < scannedPosition + width &&
+                    scannedPosition + width <= limit;
+            if (scanned)
+                i = scannedPosition;
+            for (; i + width <= limit; i += width) {
+                if (!scanned)
+                    VECTOR_SCANNER.delimiters(buffer, i, delimiterWords);
+                scanned = false;
+                for (int k = Math.max(0, (from - i) >> 3); k < delimiterWords.length; k++) {
+                    long bits = delimiterWords[k];
+                    int word = i + 8 * k;
+                    if (from > word)
+                        bits &= -1L << 8 * (from - word);
+                    for (; bits != 0; bits &= bits - 1) {
+                        int d = word + (Long.numberOfTrailingZeros(bits) >>> 3);
+                        if (d > start)
+                            addColumn(start, d);
+                        start = d + 1;
+                        if (buffer.get(d) == '\n') {
+                            scannedBuffer = buffer;
+                            scannedPosition = i;
+                            return d + 1;
+                        }
+                    }
+                }
+            }
+        }
+        // a vektoros keresés után a maradék
+        for (; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\t' || b == '\n') {
+                if (i > start)
+                    addColumn(start, i);
+                start = i + 1;
+                if (b == '\n')
+                    return i + 1;
+            }
+        }
+        if (limit > start)
+            addColumn(start, limit);
+        return -1;
+    }
+
+    private void addColumn(int start, int end) throws IOException {
+        if (columns == SalesIO.MAX_COLS)
+            throw new IOException("more than " + SalesIO.MAX_COLS + " columns @ " + start);
+        starts[columns] = start;
+        ends[columns] = end;
+        columns++;
+    }
+
+    boolean is(int column, byte[] value) {
+        if (column >= columns || ends[column] - starts[column] != value.length)
+            return false;
+        for (int i = 0; i < value.length; i++)
+            if (buffer.get(starts[column] + i) != value[i])
+                return false;
+        return true;
+    }
+
+    boolean isDash(int column) {
+        return column >= columns || ends[column] - starts[column] == 1 && buffer.get(starts[column]) == '-';
+    }
+
+    int intValue(int column) {
+        int i = starts[column], end = ends[column];
+        boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+')
+            i++;
+        if (i == end)
+            throw new NumberFormatException(string(column));
+
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || result > Integer.MAX_VALUE + 1L)
+                throw new NumberFormatException(string(column));
+            result = result * 10 + digit;
+        }
+        if (negative)
+            result = -result;
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE)
+            throw new NumberFormatException(string(column));
+        return (int) result;
+    }
+
+    /**
+     * A "-" és a hiányzó mező 0.
+     */
+    int intOrZero(int column) {
+        return isDash(column) ? 0 : intValue(column);
+    }
+
+    String string(int column) {
+        int length = ends[column] - starts[column];
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        buffer.get(starts[column], scratch, 0, length);
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    /**
+     * Mint a {@link #string}, de az ismétlődő nevekhez (eladó, termék) ugyanazt a példányt adja.
+     */
+    String name(int column) {
+        return names.name(buffer, starts[column], ends[column]);
+    }
+
+    String stringOrNull(int column) {
+        return column >= columns ? null : string(column);
+    }
+
+    Instant timestamp() {
+        return timestamps.decode(buffer, starts[0], ends[0]);
+    }
+
+    /**
+     * Ugyanazt adja, mint a {@link Sale.BillID#parse(String)}, de String nélkül olvas, és ugyanahhoz a periódushoz
+     * vagy személyzeti számlához ugyanazt a példányt adja.
+     */
+    Sale.BillID billID(int column) {
+        int start = starts[column], end = ends[column];
+        int periodID = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                if (endsWith(column, CARD_SUFFIX))
+                    return Sale.BillID.parse(string(column));
+                return names.staffBill(buffer, start, end);
+            }
+            if (i - start == 9)
+                return Sale.BillID.parse(string(column));
+            periodID = periodID * 10 + b - '0';
+        }
+        return periodBillID(periodID);
+    }
+
+    /**
+     * Ugyanaz, mint a {@code billID(column) instanceof Sale.StaffBillID}, de semmit nem hoz létre.
+     */
+    boolean isStaffBill(int column) {
+        for (int i = starts[column]; i < ends[column]; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9')
+                return !endsWith(column, CARD_SUFFIX);
+        }
+        return false;
+    }
+
+    private Sale.PeriodBillID periodBillID(int periodID) {
+        if (periodID >= MAX_CACHED_PERIOD_ID)
+            return new Sale.PeriodBillID(periodID);
+        if (periodID >= periodBillIDs.length)
+            periodBillIDs = Arrays.copyOf(periodBillIDs, Math.max(periodID + 1, periodBillIDs.length * 2));
+        Sale.PeriodBillID id = periodBillIDs[periodID];
+        if (id == null)
+            id = periodBillIDs[periodID] = new Sale.PeriodBillID(periodID);
+        return id;
+    }
+
+    private boolean endsWith(int column, byte[] suffix) {
+        int start = ends[column] - suffix.length;
+        if (start < starts[column])
+            return false;
+        for (int i = 0; i < suffix.length; i++)
+            if (buffer.get(start + i) != suffix[i])
+                return false;
+        return true;
+    }
+
+    private static SalesDelimiterScanner loadVectorScanner() {
+        if (!Boolean.getBoolean("arunyilvantarto.vectorTokenizer") ||
+                ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return null;
+        try {
+            return (SalesDelimiterScanner) Class.forName("arunyilvantarto.SalesVectorScanner").
+                    getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace(); // bájtonként keresünk
+            return null;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * sales.tsv sorokat ír egy újrahasznált direkt pufferbe, köztes {@link String}-ek nélkül. A kimenet bájtra
+ * megegyezik azzal, amit a {@code LocalDateTime.toString()} és a szöveges összefűzés adna. A termék- és
+ * eladóneveket UTF-8 kódolva megjegyzi.
+ */
+final class SalesRowEncoder {
+
+    private static final int MAX_CACHED_NAMES = 4096;
+    private static final byte[] NULL = "null".getBytes(UTF_8);
+
+    private final ZoneRules zone;
+    private final Map<String, byte[]> names = new HashMap<>();
+    private final byte[] digits = new byte[20];
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    private int lastRowStart;
+
+    SalesRowEncoder() {
+        this(ZoneId.systemDefault());
+    }
+
+    SalesRowEncoder(ZoneId zone) {
+        this.zone = zone.getRules();
+    }
+
+    /**
+     * Eldobja a puffer tartalmát, utána a következő sorok elölről kerülnek bele.
+     */
+    void clear() {
+        buffer.clear();
+        lastRowStart = 0;
+    }
+
+    /**
+     * Írásra kész állapotba teszi a puffert. Utána a következő {@link #clear()}-ig nem szabad bele sort írni.
+     *
+     * @return a puffer eddig írt része
+     */
+    ByteBuffer encoded() {
+        return buffer.flip();
+    }
+
+    /**
+     * Az utoljára írt sor kezdete az {@link #encoded()} pufferben.
+     */
+    int lastRowStart() {
+        return lastRowStart;
+    }
+
+    void text(String s) {
+        lastRowStart = buffer.position();
+        putBytes(s.getBytes(UTF_8));
+    }
+
+    void row(Instant timestamp, String productName, int quantity, int pricePerProduct, String seller,
+             Sale.BillID billID, int creditCardAmount, int purchaseID, String comment) {
+        lastRowStart = buffer.position();
+        putTimestamp(timestamp);
+        putByte('\t');
+        putName(productName);
+        putByte('\t');
+        putInt(quantity);
+        putByte('\t');
+        putInt(pricePerProduct);
+        putByte('\t');
+        putName(seller);
+        putByte('\t');
+        putBillID(billID);
+        putByte('\t');
+        if (creditCardAmount == -1)
+            putByte('-');
+        else
+            putInt(creditCardAmount);
+        putByte('\t');
+        if (purchaseID == 0)
+            putByte('-');
+        else
+            putInt(purchaseID);
+        if (comment != null) {
+            putByte('\t');
+            putBytes(comment.getBytes(UTF_8));
+        }
+        putByte('\n');
+    }
+
+    private void putBillID(Sale.BillID billID) {
+        if (billID == null)
+            putByte('-');
+        else if (billID instanceof Sale.PeriodBillID id)
+            putInt(id.periodID);
+        else if (billID instanceof Sale.StaffBillID id)
+            putName(id.username);
+        else
+            putBytes(billID.toString().getBytes(UTF_8));
+    }
+
+    private void putName(String name) {
+        if (name == null) {
+            putBytes(NULL);
+            return;
+        }
+        byte[] bytes = names.get(name);
+        if (bytes == null) {
+            if (names.size() == MAX_CACHED_NAMES)
+                names.clear();
+            bytes = name.getBytes(UTF_8);
+            names.put(name, bytes);
+        }
+        putBytes(bytes);
+    }
+
+    /**
+     * Ugyanaz, mint a {@code LocalDateTime.ofInstant(timestamp, zone).toString()}.
+     */
+    private void putTimestamp(Instant timestamp) {
+        long localSeconds = timestamp.getEpochSecond() + zone.getOffset(timestamp).getTotalSeconds();
+        long epochDay = Math.floorDiv(localSeconds, 86400);
+        int secondOfDay = Math.floorMod(localSeconds, 86400);
+        int nano = timestamp.getNano();
+
+        // Howard Hinnant civil_from_days algoritmusa
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 1000 || year > 9999) {
+            // négyjegyűtől eltérő évszámot a JDK a saját szabályai szerint formáz
+            putBytes(LocalDateTime.ofInstant(timestamp, zone.getOffset(timestamp)).toString().getBytes(UTF_8));
+            return;
+        }
+
+        ensure(29);
+        putDigits((int) year, 4);
+        buffer.put((byte) '-');
+        putDigits(month, 2);
+        buffer.put((byte) '-');
+        putDigits(day, 2);
+        buffer.put((byte) 'T');
+        putDigits(secondOfDay / 3600, 2);
+        buffer.put((byte) ':');
+        putDigits(secondOfDay / 60 % 60, 2);
+        int second = secondOfDay % 60;
+        if (second > 0 || nano > 0) {
+            buffer.put((byte) ':');
+            putDigits(second, 2);
+            if (nano > 0) {
+                buffer.put((byte) '.');
+                if (nano % 1000_000 == 0)
+                    putDigits(nano / 1000_000, 3);
+                else if (nano % 1000 == 0)
+                    putDigits(nano / 1000, 6);
+                else
+                    putDigits(nano, 9);
+            }
+        }
+    }
+
+    private void putDigits(int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            digits[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        buffer.put(digits, 0, width);
+    }
+
+    private void putInt(int value) {
+        ensure(11);
+        long v = value;
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        buffer.put(digits, i, digits.length - i);
+    }
+
+    private void putByte(char c) {
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    private void putBytes(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        bigger.put(buffer.flip());
+        buffer = bigger;
+    }
+}
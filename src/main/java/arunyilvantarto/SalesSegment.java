@@ -0,0 +1,575 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Article;
+import arunyilvantarto.domain.DataRoot;
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A sales.tsv egy szakaszának (lezárt periódusoknak) bináris másolata, hogy azt a részt ne kelljen minden olvasáskor
+ * szövegként feldolgozni. A sales.tsv ettől nem változik, a szegmens csak gyorsítótár; hogy melyik szakaszt fedi le,
+ * azt a {@link SalesManifest} tartja nyilván.
+ * <p>
+ * Felépítése: a rekordok sorban, utánuk a szótár (a nevek és megjegyzések, amikre a rekordok sorszámmal
+ * hivatkoznak), a periódusazonosító -> NYITÁS rekord pozíció index, végül egy fix méretű zárórész. Az időpontok az
+ * előző rekordhoz képesti másodperc-különbségként (a NYITÁS rekordoké a nullához képest, így az index alapján
+ * bármelyik periódus elejétől olvasni lehet), az egész számok változó hosszon vannak kódolva.
+ */
+final class SalesSegment {
+
+    private static final byte[] MAGIC = {'A', 'R', 'S', 'E', 'G', '3'};
+    private static final int TRAILER_SIZE = 8 + 8 + 8 + 8 + 8 + 8 + 4;
+
+    private static final byte PERIOD_OPEN = 1, PERIOD_CLOSE = 2, SALE = 3, MODIFY_CASH = 4, STAFF_BILL_PAY = 5;
+    private static final int PERIOD_BILL = 0, PERIOD_CARD_BILL = 1, STAFF_BILL = 2;
+
+    final Path path;
+    private final long recordCount, dictionaryOffset, lastSecond, fromSecond, toSecond;
+    private final List<String> dictionary;
+    private final Map<Integer, Long> periodOffsets;
+    private final long[] periodStarts;
+
+    private SalesSegment(Path path, long recordCount, long dictionaryOffset, long lastSecond, long fromSecond,
+                         long toSecond, List<String> dictionary, Map<Integer, Long> periodOffsets) {
+        this.path = path;
+        this.recordCount = recordCount;
+        this.dictionaryOffset = dictionaryOffset;
+        this.lastSecond = lastSecond;
+        this.fromSecond = fromSecond;
+        this.toSecond = toSecond;
+        this.dictionary = dictionary;
+        this.periodOffsets = periodOffsets;
+        periodStarts = periodOffsets.values().stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    /**
+     * @return a szegmens, vagy null, ha nincs ilyen fájl, vagy sérült
+     */
+    static SalesSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            long size = channel.size();
+            if (size < MAGIC.length + TRAILER_SIZE)
+                return null;
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            while (trailer.hasRemaining())
+                if (channel.read(trailer, size - TRAILER_SIZE + trailer.position()) == -1)
+                    return null;
+            trailer.flip();
+            long recordCount = trailer.getLong();
+            long dictionaryOffset = trailer.getLong();
+            long indexOffset = trailer.getLong();
+            long lastSecond = trailer.getLong();
+            long fromSecond = trailer.getLong();
+            long toSecond = trailer.getLong();
+            int checksum = trailer.getInt();
+
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            channel.read(magic, 0);
+            if (!Arrays.equals(magic.array(), MAGIC) || dictionaryOffset > indexOffset || indexOffset > size ||
+                    checksum(channel, size - 4) != checksum)
+                return null;
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(dictionaryOffset))));
+            List<String> dictionary = new ArrayList<>();
+            for (long i = readVarLong(in); i > 0; i--) {
+                byte[] bytes = new byte[(int) readVarLong(in)];
+                in.readFully(bytes);
+                dictionary.add(new String(bytes, UTF_8));
+            }
+            Map<Integer, Long> periodOffsets = new LinkedHashMap<>();
+            for (long i = readVarLong(in); i > 0; i--)
+                periodOffsets.put((int) readVarLong(in), readVarLong(in));
+            return new SalesSegment(path, recordCount, dictionaryOffset, lastSecond, fromSecond, toSecond, dictionary,
+                    periodOffsets);
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    private static int checksum(FileChannel channel, long end) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        for (long position = 0; position < end; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n == -1)
+                throw new EOFException();
+            crc.update(buffer.flip());
+            position += n;
+        }
+        return (int) crc.getValue();
+    }
+
+    interface RecordHandler {
+        void handle(SalesRecord record) throws IOException;
+    }
+
+    /**
+     * Sorban visszaadja a rekordokat, ugyanúgy, ahogy a sales.tsv megfelelő sorai beolvasva adnák. A termékeket a
+     * nevük alapján most keresi ki, így a közben átnevezett vagy törölt termékek is úgy jönnek, mint a szövegből.
+     */
+    void forEach(DataRoot data, RecordHandler handler) throws IOException {
+        read(data, MAGIC.length, -1, handler);
+    }
+
+    boolean hasPeriod(int periodID) {
+        return periodOffsets.containsKey(periodID);
+    }
+
+    /**
+     * @return a periódus NYITÁS rekordjának helye, vagy -1, ha nincs ilyen periódus a szegmensben
+     */
+    long periodStart(int periodID) {
+        return periodOffsets.getOrDefault(periodID, -1L);
+    }
+
+    /**
+     * Mint a {@link #forEach}, de csak a periódus NYITÁS rekordjától a ZÁRÁS rekordjáig (vagy a következő NYITÁS-ig).
+     *
+     * @return false, ha nincs ilyen periódus a szegmensben
+     */
+    boolean forEachInPeriod(DataRoot data, int periodID, RecordHandler handler) throws IOException {
+        Long offset = periodOffsets.get(periodID);
+        if (offset == null)
+            return false;
+        read(data, offset, periodID, handler);
+        return true;
+    }
+
+    /**
+     * @param periodID ha nem -1, a periódus végén megáll
+     */
+    private void read(DataRoot data, long from, int periodID, RecordHandler handler) throws IOException {
+        try (Cursor cursor = new Cursor(data, from, dictionaryOffset)) {
+            for (long position = from; ; position = cursor.position()) {
+                SalesRecord record = cursor.next();
+                if (record == null || periodID != -1 && record instanceof SalesRecord.PeriodOpen && position != from)
+                    break;
+                handler.handle(record);
+                if (periodID != -1 && record instanceof SalesRecord.PeriodClose c && c.periodID() == periodID)
+                    break;
+            }
+        }
+    }
+
+    /**
+     * A rekordok eleje; a vége a {@link #recordsEnd()}.
+     */
+    long recordsStart() {
+        return MAGIC.length;
+    }
+
+    long recordsEnd() {
+        return dictionaryOffset;
+    }
+
+    /**
+     * @return a (from, to) tartomány közepéhez legközelebbi NYITÁS rekord helye, vagy -1, ha nincs a tartományban
+     */
+    long periodStartNear(long from, long to) {
+        long middle = from + (to - from) / 2, best = -1;
+        int i = Arrays.binarySearch(periodStarts, middle);
+        if (i < 0)
+            i = -i - 1;
+        if (i < periodStarts.length && periodStarts[i] < to)
+            best = periodStarts[i];
+        if (i > 0 && periodStarts[i - 1] > from && (best == -1 || middle - periodStarts[i - 1] < best - middle))
+            best = periodStarts[i - 1];
+        return best;
+    }
+
+    /**
+     * @return nagyjából ennyi rekord van a [from, to) tartományban
+     */
+    long estimateRecords(long from, long to) {
+        return recordCount * (to - from) / Math.max(1, dictionaryOffset - MAGIC.length);
+    }
+
+    /**
+     * @param from a rekordok eleje vagy egy NYITÁS rekord
+     */
+    Cursor cursor(DataRoot data, long from, long to) {
+        return new Cursor(data, from, to);
+    }
+
+    /**
+     * Rekordonként olvas a {@code from} pozíciótól a {@code to} pozícióig. A fájlt az első olvasáskor nyitja meg, és a
+     * tartomány végén zárja be; a félbehagyott olvasás után a {@link #close()} zárja be.
+     */
+    final class Cursor implements Closeable {
+
+        private final DataRoot data;
+        private final Input in;
+        private final long to;
+        private final Article[] articles = new Article[dictionary.size()];
+        private final boolean[] articleLooked = new boolean[dictionary.size()];
+        private final Sale.StaffBillID[] staffBills = new Sale.StaffBillID[dictionary.size()];
+        private final Map<Integer, Sale.PeriodBillID> periodBills = new HashMap<>();
+        private long second;
+
+        private Cursor(DataRoot data, long from, long to) {
+            this.data = data;
+            this.to = to;
+            in = new Input(path, from);
+        }
+
+        /**
+         * A következő rekord helye a fájlban.
+         */
+        long position() {
+            return in.position();
+        }
+
+        /**
+         * @return a következő rekord, vagy null, ha elérte a tartomány végét
+         */
+        SalesRecord next() throws IOException {
+            long position = in.position();
+            if (position >= to) {
+                in.close();
+                return null;
+            }
+            byte type = in.readByte();
+            return switch (type) {
+                case PERIOD_OPEN -> {
+                    SellingPeriod p = new SellingPeriod();
+                    second = in.readZigZag();
+                    p.beginTime = Instant.ofEpochSecond(second, in.readVarLong());
+                    p.id = (int) in.readVarLong();
+                    p.username = dictionary.get((int) in.readVarLong());
+                    p.openCash = (int) in.readZigZag();
+                    p.openCreditCardAmount = (int) in.readZigZag();
+                    p.sales = new ArrayList<>();
+                    yield new SalesRecord.PeriodOpen(p, readOptional(in));
+                }
+                case PERIOD_CLOSE -> {
+                    second += in.readZigZag();
+                    Instant endTime = Instant.ofEpochSecond(second, in.readVarLong());
+                    int closedID = (int) in.readVarLong();
+                    int closeCash = (int) in.readZigZag();
+                    int closeCreditCardAmount = (int) in.readZigZag();
+                    yield new SalesRecord.PeriodClose(closedID, closeCash, closeCreditCardAmount, endTime,
+                            readOptional(in));
+                }
+                case SALE -> {
+                    Sale sale = new Sale();
+                    second += in.readZigZag();
+                    sale.timestamp = Instant.ofEpochSecond(second, in.readVarLong());
+                    int product = (int) in.readVarLong();
+                    if (!articleLooked[product]) {
+                        articles[product] = data.findArticle(dictionary.get(product)).orElse(null);
+                        articleLooked[product] = true;
+                    }
+                    sale.article = articles[product];
+                    sale.seller = dictionary.get((int) in.readVarLong());
+                    sale.quantity = (int) in.readZigZag();
+                    sale.pricePerProduct = (int) in.readZigZag();
+                    int billType = in.readByte();
+                    int bill = (int) in.readVarLong();
+                    sale.billID = switch (billType) {
+                        case PERIOD_BILL -> periodBills.computeIfAbsent(bill, Sale.PeriodBillID::new);
+                        case PERIOD_CARD_BILL -> new Sale.PeriodCardBillID(bill);
+                        case STAFF_BILL -> staffBill(staffBills, bill);
+                        default -> throw new IOException("unknown bill type " + billType + " @ " + position);
+                    };
+                    sale.paymentID = (int) in.readZigZag();
+                    yield new SalesRecord.SaleRecord(sale);
+                }
+                case MODIFY_CASH -> {
+                    String username = dictionary.get((int) in.readVarLong());
+                    int cash = (int) in.readZigZag();
+                    yield new SalesRecord.CashModification(username, cash, (int) in.readZigZag());
+                }
+                case STAFF_BILL_PAY -> {
+                    second += in.readZigZag();
+                    Instant timestamp = Instant.ofEpochSecond(second, in.readVarLong());
+                    Sale.StaffBillID bill = staffBill(staffBills, (int) in.readVarLong());
+                    String administrator = dictionary.get((int) in.readVarLong());
+                    yield new SalesRecord.StaffBillPayment(bill, administrator, (int) in.readZigZag(), timestamp);
+                }
+                default -> throw new IOException("unknown record type " + type + " @ " + position);
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private Sale.StaffBillID staffBill(Sale.StaffBillID[] staffBills, int code) {
+        if (staffBills[code] == null)
+            staffBills[code] = new Sale.StaffBillID(dictionary.get(code));
+        return staffBills[code];
+    }
+
+    private String readOptional(Input in) throws IOException {
+        int code = (int) in.readVarLong();
+        return code == 0 ? null : dictionary.get(code - 1);
+    }
+
+    /**
+     * Pufferelt olvasás a fájlból; a {@link BufferedInputStream}-mel ellentétben bájtonként nem szinkronizál, és a
+     * fájlt csak az első feltöltéskor nyitja meg.
+     */
+    private static final class Input implements Closeable {
+
+        private final Path path;
+        private final ByteBuffer buffer = ByteBuffer.allocate(65536).flip();
+        private FileChannel channel;
+        private long position;
+
+        Input(Path path, long position) {
+            this.path = path;
+            this.position = position;
+        }
+
+        /**
+         * A következő olvasandó bájt helye a fájlban.
+         */
+        long position() {
+            return position - buffer.remaining();
+        }
+
+        byte readByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                if (channel == null)
+                    channel = FileChannel.open(path);
+                int n = channel.read(buffer, position);
+                if (n == -1)
+                    throw new EOFException();
+                position += n;
+                buffer.flip();
+            }
+            return buffer.get();
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new IOException("malformed varint");
+        }
+
+        long readZigZag() throws IOException {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Új szegmensfájlt ír. Ha van korábbi szegmens, annak rekordjait bájtra átmásolja, és csak az utána következő
+     * sorokat kell hozzáadni.
+     */
+    static final class Writer implements Closeable {
+
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final Map<Integer, Long> periodOffsets = new LinkedHashMap<>();
+        private long recordCount, lastSecond;
+
+        /**
+         * A legkorábbi és legkésőbbi időpont epoch másodpercben; üres szegmensnél {@code from > to}.
+         */
+        long fromSecond = Long.MAX_VALUE, toSecond = Long.MIN_VALUE;
+
+        Writer(Path path, SalesSegment base) throws IOException {
+            checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 65536), new CRC32());
+            out = new DataOutputStream(checked);
+            out.write(MAGIC);
+            if (base == null)
+                return;
+
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(base.path), 65536)) {
+                in.skipNBytes(MAGIC.length);
+                byte[] buffer = new byte[65536];
+                for (long remaining = base.dictionaryOffset - MAGIC.length; remaining > 0; ) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n == -1)
+                        throw new EOFException();
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+            base.dictionary.forEach(this::code);
+            periodOffsets.putAll(base.periodOffsets);
+            recordCount = base.recordCount;
+            lastSecond = base.lastSecond;
+            fromSecond = base.fromSecond;
+            toSecond = base.toSecond;
+        }
+
+        /**
+         * Az eddig hozzáadott periódusok azonosítói, sorrendben.
+         */
+        Set<Integer> periodIDs() {
+            return periodOffsets.keySet();
+        }
+
+        /**
+         * Hozzáad egy sales.tsv sort; ugyanazokat a mezőket tárolja, amiket a {@link SalesIO} beolvasáskor kiolvas.
+         */
+        void add(SalesRow row) throws IOException {
+            if (row.is(1, SalesIO.PERIOD_OPEN_PRODUCT_NAME_BYTES)) {
+                int periodID = ((Sale.PeriodBillID) row.billID(5)).periodID;
+                periodOffsets.put(periodID, (long) out.size());
+                out.writeByte(PERIOD_OPEN);
+                lastSecond = 0;
+                writeTimestamp(row.timestamp());
+                writeVarLong(out, periodID);
+                writeVarLong(out, code(row.name(4)));
+                writeZigZag(out, -row.intValue(3));
+                writeZigZag(out, row.intOrZero(6));
+                writeOptional(row.stringOrNull(8));
+            } else if (row.is(1, SalesIO.PERIOD_CLOSE_PRODUCT_NAME_BYTES)) {
+                out.writeByte(PERIOD_CLOSE);
+                writeTimestamp(row.timestamp());
+                writeVarLong(out, ((Sale.PeriodBillID) row.billID(5)).periodID);
+                writeZigZag(out, row.intValue(3));
+                writeZigZag(out, row.intOrZero(6));
+                writeOptional(row.stringOrNull(8));
+            } else if (row.is(1, SalesIO.MODIFY_CASH_PRODUCT_NAME_BYTES)) {
+                out.writeByte(MODIFY_CASH);
+                writeVarLong(out, code(row.name(4)));
+                writeZigZag(out, row.intValue(3));
+                writeZigZag(out, row.intOrZero(6));
+            } else if (row.is(1, SalesIO.STAFF_BILL_PAY_PRODUCT_NAME_BYTES)) {
+                out.writeByte(STAFF_BILL_PAY);
+                writeTimestamp(row.timestamp());
+                writeVarLong(out, code(((Sale.StaffBillID) row.billID(5)).username));
+                writeVarLong(out, code(row.name(4)));
+                writeZigZag(out, -row.intValue(3));
+            } else {
+                out.writeByte(SALE);
+                writeTimestamp(row.timestamp());
+                writeVarLong(out, code(row.name(1)));
+                writeVarLong(out, code(row.name(4)));
+                writeZigZag(out, row.intValue(2));
+                writeZigZag(out, row.intValue(3));
+                switch (row.billID(5)) {
+                    case Sale.PeriodBillID b -> {
+                        out.writeByte(PERIOD_BILL);
+                        writeVarLong(out, b.periodID);
+                    }
+                    case Sale.PeriodCardBillID b -> {
+                        out.writeByte(PERIOD_CARD_BILL);
+                        writeVarLong(out, b.periodID);
+                    }
+                    case Sale.StaffBillID b -> {
+                        out.writeByte(STAFF_BILL);
+                        writeVarLong(out, code(b.username));
+                    }
+                    default -> throw new IOException("unknown bill ID " + row.string(5));
+                }
+                writeZigZag(out, row.intOrZero(7));
+            }
+            recordCount++;
+        }
+
+        /**
+         * Kiírja a szótárat, az indexet és a zárórészt.
+         */
+        void finish() throws IOException {
+            long dictionaryOffset = out.size();
+            writeVarLong(out, dictionary.size());
+            for (String s : dictionary) {
+                byte[] bytes = s.getBytes(UTF_8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+            long indexOffset = out.size();
+            writeVarLong(out, periodOffsets.size());
+            for (Map.Entry<Integer, Long> e : periodOffsets.entrySet()) {
+                writeVarLong(out, e.getKey());
+                writeVarLong(out, e.getValue());
+            }
+
+            out.writeLong(recordCount);
+            out.writeLong(dictionaryOffset);
+            out.writeLong(indexOffset);
+            out.writeLong(lastSecond);
+            out.writeLong(fromSecond);
+            out.writeLong(toSecond);
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+        }
+
+        private int code(String s) {
+            return codes.computeIfAbsent(s, k -> {
+                dictionary.add(k);
+                return dictionary.size() - 1;
+            });
+        }
+
+        private void writeOptional(String s) throws IOException {
+            writeVarLong(out, s == null ? 0 : code(s) + 1);
+        }
+
+        private void writeTimestamp(Instant timestamp) throws IOException {
+            writeZigZag(out, timestamp.getEpochSecond() - lastSecond);
+            writeVarLong(out, timestamp.getNano());
+            lastSecond = timestamp.getEpochSecond();
+            fromSecond = Math.min(fromSecond, lastSecond);
+            toSecond = Math.max(toSecond, lastSecond);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static void writeZigZag(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("malformed varint");
+    }
+}
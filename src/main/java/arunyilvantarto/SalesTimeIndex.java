@@ -0,0 +1,174 @@
+package arunyilvantarto;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Ritka index a sales.tsv-hez: nagyjából minden {@link #ROWS_PER_ENTRY}-edik sor után a következő NYITÁS sor
+ * időpontja (epoch másodpercben) és bájtpozíciója. Mivel csak periódus eleje kerül bele, egy időpontra keresve
+ * mindig periódushatárra ugrunk. Feltételezi, hogy a periódusok időrendben követik egymást.
+ * <p>
+ * A mellékfájlhoz csak hozzáfűzünk; betöltéskor minden bejegyzést ellenőrzünk a sales.tsv-n, és az első hibás
+ * bejegyzéstől eldobjuk a többit. A fejlécben a sales.tsv generációja van (lásd {@link SalesCheckpoint#generation}); ha
+ * az nem stimmel, az egészet eldobjuk.
+ */
+final class SalesTimeIndex {
+
+    static final int ROWS_PER_ENTRY = 256;
+
+    private static final int MAGIC = 0x41525432;
+    // a MAGIC és a generáció
+    private static final int HEADER_BYTES = 12;
+
+    private final Path path;
+    private final long generation;
+    private long[] seconds = new long[64], offsets = new long[64];
+    private int size;
+
+    // ennyi bejegyzés van már a fájlban; -1, ha a fájlt újra kell írni
+    private int saved = -1;
+    private int rowsSinceEntry;
+
+    /**
+     * Eddig a bájtpozícióig (kizárólag) vannak benne a sales.tsv sorai.
+     */
+    long indexedOffset;
+
+    private SalesTimeIndex(Path path, long generation) {
+        this.path = path;
+        this.generation = generation;
+    }
+
+    /**
+     * @param generation a sales.tsv mostani generációja
+     * @return a mentett index érvényes része; ha nincs ilyen fájl, másik generációhoz tartozik, vagy egy bejegyzés sem
+     * érvényes, üres index
+     */
+    static SalesTimeIndex load(Path path, ByteBuffer tsv, long generation) throws IOException {
+        SalesTimeIndex index = new SalesTimeIndex(path, generation);
+        SalesRow row = new SalesRow();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readLong() != generation)
+                return index;
+            long length = Files.size(path);
+            for (long n = (length - HEADER_BYTES) / 16; n > 0; n--) {
+                long second = in.readLong();
+                long offset = in.readLong();
+                if (!index.valid(row, tsv, second, offset))
+                    return index;
+                index.append(second, offset);
+            }
+            // félbemaradt hozzáfűzés után ne a csonka bejegyzés után folytassa
+            if (length == HEADER_BYTES + 16L * index.size)
+                index.saved = index.size;
+            return index;
+        } catch (NoSuchFileException | EOFException e) {
+            return index;
+        } finally {
+            if (index.size > 0)
+                index.indexedOffset = index.offsets[index.size - 1];
+        }
+    }
+
+    private boolean valid(SalesRow row, ByteBuffer tsv, long second, long offset) throws IOException {
+        if (offset <= 0 || offset >= tsv.limit() || size > 0 && offset <= offsets[size - 1] ||
+                tsv.get((int) offset - 1) != '\n' || row.parse(tsv, (int) offset, tsv.limit()) == -1 ||
+                row.columns < SalesIO.MIN_COLS || !row.is(1, SalesIO.PERIOD_OPEN_PRODUCT_NAME_BYTES))
+            return false;
+        return row.timestamp().getEpochSecond() == second;
+    }
+
+    /**
+     * A sales.tsv következő sora, sorrendben, az {@link #indexedOffset}-től kezdve.
+     */
+    void add(SalesRow row, int offset) {
+        rowsSinceEntry++;
+        if (!row.is(1, SalesIO.PERIOD_OPEN_PRODUCT_NAME_BYTES) ||
+                size > 0 && (rowsSinceEntry < ROWS_PER_ENTRY || offset <= offsets[size - 1]))
+            return;
+        append(row.timestamp().getEpochSecond(), offset);
+        rowsSinceEntry = 0;
+    }
+
+    private void append(long second, long offset) {
+        if (size == seconds.length) {
+            seconds = Arrays.copyOf(seconds, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        seconds[size] = second;
+        offsets[size] = offset;
+        size++;
+    }
+
+    /**
+     * @return egy periódus eleje, ami előtt csak {@code from} előtt lezárt periódusok vannak, vagy 0
+     */
+    long floorOffset(Instant from) {
+        // szigorúan kisebb, mert a bejegyzés másodpercre kerekített, a periódus a másodpercen belül később is kezdődhet
+        int i = search(from.getEpochSecond()) - 1;
+        return i < 0 ? 0 : offsets[i];
+    }
+
+    /**
+     * @return egy periódus eleje, ami után csak {@code to} után kezdődő periódusok vannak, vagy -1, ha nincs ilyen
+     */
+    long ceilingOffset(Instant to) {
+        int i = search(to.getEpochSecond() + 1);
+        return i == size ? -1 : offsets[i];
+    }
+
+    /**
+     * @return az első bejegyzés, aminek az időpontja legalább {@code second}, vagy {@link #size}
+     */
+    private int search(long second) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (seconds[mid] < second)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Kiírja a még nem mentett bejegyzéseket; ha betöltéskor hibás volt a fájl, az egészet újraírja.
+     */
+    void save() throws IOException {
+        if (saved == size)
+            return;
+        if (saved == -1) {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(generation);
+                write(out, 0);
+            }
+            Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        } else {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(path, CREATE, APPEND)))) {
+                write(out, saved);
+            }
+        }
+        saved = size;
+    }
+
+    private void write(DataOutputStream out, int from) throws IOException {
+        for (int i = from; i < size; i++) {
+            out.writeLong(seconds[i]);
+            out.writeLong(offsets[i]);
+        }
+    }
+}
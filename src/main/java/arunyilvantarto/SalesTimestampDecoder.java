@@ -0,0 +1,121 @@
+package arunyilvantarto;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * A {@link SalesRowEncoder} által írt, {@code LocalDateTime.toString()} alakú időpontokat olvassa be köztes
+ * {@link String} és {@link LocalDateTime} nélkül. Az időzóna eltolását naponként megjegyzi, így az ugyanarra a napra
+ * eső egymás utáni sorok nem kérdezik le a zóna szabályait. Nem szálbiztos.
+ */
+final class SalesTimestampDecoder {
+
+    // ennyivel térhet el legfeljebb a helyi idő az UTC-től
+    private static final int MAX_OFFSET_SECONDS = 18 * 3600;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+
+    private long cachedDay = Long.MIN_VALUE;
+    private int cachedOffset;
+    private boolean cachedDayHasTransition;
+
+    SalesTimestampDecoder() {
+        this(ZoneId.systemDefault());
+    }
+
+    SalesTimestampDecoder(ZoneId zone) {
+        this.zone = zone;
+        this.rules = zone.getRules();
+    }
+
+    /**
+     * Ugyanaz, mint a {@code LocalDateTime.parse(text).atZone(zone).toInstant()}.
+     */
+    Instant decode(ByteBuffer buffer, int start, int end) {
+        // yyyy-MM-ddTHH:mm, utána elhagyható :ss, és azután .SSS, .SSSSSS vagy .SSSSSSSSS
+        int length = end - start;
+        if (length != 16 && length != 19 && length != 23 && length != 26 && length != 29 ||
+                buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-' || buffer.get(start + 10) != 'T' ||
+                buffer.get(start + 13) != ':' || length > 16 && buffer.get(start + 16) != ':' ||
+                length > 19 && buffer.get(start + 19) != '.')
+            return parse(buffer, start, end);
+
+        int year = digits(buffer, start, 4);
+        int month = digits(buffer, start + 5, 2);
+        int day = digits(buffer, start + 8, 2);
+        int hour = digits(buffer, start + 11, 2);
+        int minute = digits(buffer, start + 14, 2);
+        int second = length > 16 ? digits(buffer, start + 17, 2) : 0;
+        int nano = length > 19 ? digits(buffer, start + 20, length - 20) : 0;
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) ||
+                hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || nano < 0)
+            return parse(buffer, start, end);
+        if (length == 23)
+            nano *= 1000_000;
+        else if (length == 26)
+            nano *= 1000;
+
+        // Howard Hinnant days_from_civil algoritmusa
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long epochDay = era * 146097 + doe - 719468;
+
+        long localSecond = epochDay * 86400 + hour * 3600 + minute * 60 + second;
+        return Instant.ofEpochSecond(toEpochSecond(epochDay, localSecond, nano), nano);
+    }
+
+    private long toEpochSecond(long epochDay, long localSecond, int nano) {
+        if (epochDay != cachedDay) {
+            // a nap bármely helyi időpontja ebbe az ablakba esik; ha ebben nincs átállás, az eltolás egész nap ugyanaz
+            long windowStart = epochDay * 86400 - MAX_OFFSET_SECONDS;
+            long windowEnd = (epochDay + 1) * 86400 + MAX_OFFSET_SECONDS;
+            ZoneOffsetTransition next = rules.nextTransition(Instant.ofEpochSecond(windowStart));
+            cachedDay = epochDay;
+            cachedDayHasTransition = next != null && next.toEpochSecond() <= windowEnd;
+            cachedOffset = rules.getOffset(Instant.ofEpochSecond(windowStart)).getTotalSeconds();
+        }
+        if (cachedDayHasTransition)
+            return LocalDateTime.ofEpochSecond(localSecond, nano, ZoneOffset.UTC).atZone(zone).toEpochSecond();
+        return localSecond - cachedOffset;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> Year.isLeap(year) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /**
+     * @return a számjegyekből álló érték, vagy -1, ha nem csak számjegyekből áll
+     */
+    private static int digits(ByteBuffer buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private Instant parse(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return LocalDateTime.parse(new String(bytes, ISO_8859_1)).atZone(zone).toInstant();
+    }
+}
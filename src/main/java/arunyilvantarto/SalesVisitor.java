@@ -4,9 +4,44 @@ import arunyilvantarto.domain.Sale;
 import arunyilvantarto.domain.SellingPeriod;
 
 import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 public interface SalesVisitor {
 
+    /**
+     * Sorfajták, lásd {@link #rowKinds()}.
+     */
+    enum RowKind {
+        /**
+         * NYITÁS és ZÁRÁS sorok.
+         */
+        PERIOD,
+
+        /**
+         * Minden eladás.
+         */
+        SALE,
+
+        /**
+         * Csak a személyzeti számlára írt eladások.
+         */
+        STAFF_BILL_SALE,
+
+        CASH_MODIFICATION,
+        STAFF_BILL_PAYMENT
+    }
+
+    /**
+     * A sorfajták, amikre a visitornak szüksége van. A többi sort az olvasás csak a termék és a számla oszlop alapján
+     * átugorja, se az időpontot, se a terméket nem olvassa be belőlük, és a visitort sem hívja rájuk. A periódusok
+     * {@code sales} listájába is csak a kért eladások kerülnek.
+     */
+    default Set<RowKind> rowKinds() {
+        return EnumSet.allOf(RowKind.class);
+    }
+
     default void begin(){}
 
     default void beginPeriod(SellingPeriod period, String comment) {}
@@ -21,4 +56,59 @@ public interface SalesVisitor {
 
     default void end() {}
 
+    /**
+     * Minden hívást sorban továbbad az összes visitornak. Ugyanazokat a periódus- és eladás-objektumokat kapják meg,
+     * és mindegyik megkapja azokat a sorokat is, amiket csak egy másik kért.
+     */
+    static SalesVisitor all(List<SalesVisitor> visitors) {
+        return new SalesVisitor() {
+            @Override
+            public Set<RowKind> rowKinds() {
+                Set<RowKind> kinds = EnumSet.noneOf(RowKind.class);
+                for (SalesVisitor v : visitors)
+                    kinds.addAll(v.rowKinds());
+                return kinds;
+            }
+
+            @Override
+            public void begin() {
+                visitors.forEach(SalesVisitor::begin);
+            }
+
+            @Override
+            public void beginPeriod(SellingPeriod period, String comment) {
+                for (SalesVisitor v : visitors)
+                    v.beginPeriod(period, comment);
+            }
+
+            @Override
+            public void sale(Sale sale) {
+                for (SalesVisitor v : visitors)
+                    v.sale(sale);
+            }
+
+            @Override
+            public void endPeriod(SellingPeriod period, String comment) {
+                for (SalesVisitor v : visitors)
+                    v.endPeriod(period, comment);
+            }
+
+            @Override
+            public void modifyCash(String username, int cash, int creditCardAmount) {
+                for (SalesVisitor v : visitors)
+                    v.modifyCash(username, cash, creditCardAmount);
+            }
+
+            @Override
+            public void staffBillPay(Sale.StaffBillID bill, String administrator, int money, Instant timestamp) {
+                for (SalesVisitor v : visitors)
+                    v.staffBillPay(bill, administrator, money, timestamp);
+            }
+
+            @Override
+            public void end() {
+                visitors.forEach(SalesVisitor::end);
+            }
+        };
+    }
 }
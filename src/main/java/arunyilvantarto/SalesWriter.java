@@ -0,0 +1,218 @@
+package arunyilvantarto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static arunyilvantarto.WritePolicy.Mode.*;
+
+/**
+ * A sales.tsv írási oldala. A sorokat a {@link WritePolicy} szerint egy pufferben gyűjti össze, egyetlen írással teszi
+ * ki őket, és ha kell, fsync-eli a fájlt. Minden sorhoz ad egy {@link CompletableFuture}-t, ami akkor teljesül, amikor
+ * a sor a szabály szerint elmentettnek számít.
+ * <p>
+ * Ha egy írás vagy fsync nem sikerül, a fájlt visszavágja az utolsó elmentett sor végéig, a hátralévő sorok
+ * futureje hibával zárul, és az író onnantól minden új sort elutasít, hiszen a hívó állapota már a meg nem írt sorok
+ * utáni pozíciót tartja nyilván.
+ */
+final class SalesWriter implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final WritePolicy policy;
+    private final Object writeLock = new Object();
+    private final Thread thread;
+
+    // a beküldött, még ki nem írt sorok egymás után; a két puffert flush-onként cseréljük
+    private ByteBuffer pending = ByteBuffer.allocateDirect(64 * 1024), spare = ByteBuffer.allocateDirect(64 * 1024);
+    private int[] rowEnds = new int[64], spareRowEnds = new int[64];
+    private List<CompletableFuture<Void>> completions = new ArrayList<>();
+    private long firstRowNanos;
+    private boolean closed;
+    private volatile IOException failure;
+
+    SalesWriter(FileChannel channel, WritePolicy policy) {
+        this.channel = channel;
+        this.policy = policy;
+
+        if (policy.mode() == OS_BUFFERED)
+            thread = null;
+        else {
+            thread = new Thread(this::run, "sales-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * A puffer tartalmát visszatérés előtt kiírja vagy átmásolja, így a hívó utána újrahasználhatja.
+     */
+    CompletableFuture<Void> append(ByteBuffer row) {
+        if (policy.mode() == OS_BUFFERED) {
+            synchronized (writeLock) {
+                if (failure != null)
+                    return rejected();
+                long start = -1;
+                try {
+                    start = channel.position();
+                    write(row);
+                    return CompletableFuture.completedFuture(null);
+                } catch (IOException e) {
+                    fail(e, start);
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+        }
+
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("sales writer already closed");
+            if (failure != null)
+                return rejected();
+            if (completions.isEmpty())
+                firstRowNanos = System.nanoTime();
+            if (pending.remaining() < row.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(pending.capacity() * 2,
+                        pending.position() + row.remaining()));
+                pending = bigger.put(pending.flip());
+            }
+            pending.put(row);
+            if (completions.size() == rowEnds.length)
+                rowEnds = Arrays.copyOf(rowEnds, rowEnds.length * 2);
+            rowEnds[completions.size()] = pending.position();
+            completions.add(completion);
+            notifyAll();
+        }
+        return completion;
+    }
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (completions.isEmpty() && !closed)
+                        wait();
+                    if (completions.isEmpty())
+                        return;
+
+                    if (policy.mode() == GROUP_COMMIT) {
+                        long deadline = firstRowNanos + TimeUnit.MILLISECONDS.toNanos(policy.maxDelayMillis());
+                        long remaining;
+                        while (!closed && completions.size() < policy.maxRows() && (remaining = deadline - System.nanoTime()) > 0)
+                            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Kiírja az összes eddig beküldött sort a hívó szálon, hogy egy olvasás már lássa őket.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            ByteBuffer batch;
+            int[] batchRowEnds;
+            List<CompletableFuture<Void>> batchCompletions;
+            synchronized (this) {
+                if (completions.isEmpty())
+                    return;
+                batch = pending.flip();
+                batchRowEnds = rowEnds;
+                batchCompletions = completions;
+                pending = spare.clear();
+                rowEnds = spareRowEnds;
+                completions = new ArrayList<>();
+            }
+
+            int done = 0;
+            // az utolsó elmentett sor vége
+            long durable = -1;
+            try {
+                if (failure != null)
+                    throw new IOException("sales writer failed earlier", failure);
+                durable = channel.position();
+                if (policy.mode() == FSYNC_EACH_ROW) {
+                    for (; done < batchCompletions.size(); done++) {
+                        write(batch.limit(batchRowEnds[done]));
+                        channel.force(false);
+                        durable = channel.position();
+                        batchCompletions.get(done).complete(null);
+                    }
+                } else {
+                    write(batch);
+                    channel.force(false);
+                    for (; done < batchCompletions.size(); done++)
+                        batchCompletions.get(done).complete(null);
+                }
+            } catch (IOException e) {
+                if (failure == null)
+                    fail(e, durable);
+                for (; done < batchCompletions.size(); done++)
+                    batchCompletions.get(done).completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    spare = batch;
+                    spareRowEnds = batchRowEnds;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param durable az utolsó elmentett sor vége, eddig vágjuk vissza a fájlt, hogy ne maradjon benne félig kiírt sor;
+     *                -1, ha nem ismert
+     */
+    private void fail(IOException e, long durable) {
+        failure = e;
+        if (durable == -1)
+            return;
+        try {
+            channel.truncate(durable);
+            channel.position(durable);
+        } catch (IOException truncateFailure) {
+            e.addSuppressed(truncateFailure);
+        }
+    }
+
+    private CompletableFuture<Void> rejected() {
+        return CompletableFuture.failedFuture(new IOException("sales writer failed earlier", failure));
+    }
+
+    /**
+     * @return a korábbi sikertelen írás hibája, vagy null; ha nem null, az író már nem fogad sorokat
+     */
+    IOException failure() {
+        return failure;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    @Override
+    public void close() {
+        if (thread == null)
+            return;
+
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
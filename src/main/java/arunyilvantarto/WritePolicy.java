@@ -0,0 +1,59 @@
+package arunyilvantarto;
+
+/**
+ * Meghatározza, hogy a sales.tsv-be írt sorok mikor kerülnek ténylegesen lemezre.
+ */
+public record WritePolicy(Mode mode, int maxRows, long maxDelayMillis) {
+
+    public static final WritePolicy FSYNC_EACH_ROW = new WritePolicy(Mode.FSYNC_EACH_ROW, 1, 0);
+    public static final WritePolicy OS_BUFFERED = new WritePolicy(Mode.OS_BUFFERED, 1, 0);
+
+    public WritePolicy {
+        if (maxRows < 1 || maxDelayMillis < 0)
+            throw new IllegalArgumentException("maxRows: " + maxRows + ", maxDelayMillis: " + maxDelayMillis);
+    }
+
+    public static WritePolicy groupCommit(int maxRows, long maxDelayMillis) {
+        return new WritePolicy(Mode.GROUP_COMMIT, maxRows, maxDelayMillis);
+    }
+
+    /**
+     * Formátum: {@code fsync}, {@code os}, {@code group} vagy {@code group:<ms>:<sorok>}.
+     */
+    public static WritePolicy parse(String s) {
+        String[] parts = s.split(":");
+        switch (parts[0]) {
+            case "fsync":
+                return FSYNC_EACH_ROW;
+            case "os":
+                return OS_BUFFERED;
+            case "group":
+                if (parts.length == 1)
+                    return groupCommit(100, 50);
+                if (parts.length == 3)
+                    return groupCommit(Integer.parseInt(parts[2]), Long.parseLong(parts[1]));
+                throw new IllegalArgumentException("invalid write policy: " + s);
+            default:
+                throw new IllegalArgumentException("invalid write policy: " + s);
+        }
+    }
+
+    public enum Mode {
+
+        /**
+         * Minden sor után fsync, a sor csak utána számít elmentettnek.
+         */
+        FSYNC_EACH_ROW,
+
+        /**
+         * A sorok egy háttérszálon gyűlnek, és legfeljebb {@link #maxDelayMillis} ms vagy {@link #maxRows} sor után
+         * egyetlen írással és fsync-kel kerülnek ki.
+         */
+        GROUP_COMMIT,
+
+        /**
+         * Azonnal kiírjuk, de az operációs rendszerre bízzuk, mikor kerül lemezre.
+         */
+        OS_BUFFERED
+    }
+}
@@ -2,7 +2,9 @@ package arunyilvantarto.domain;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DataRoot {
 
@@ -11,17 +13,130 @@ public class DataRoot {
     public List<Message> messages = new ArrayList<>();
     public List<Menu> menus = new ArrayList<>();
 
+    // az első kereséskor épülnek fel a listákból; utána csak az alábbi módosító metódusokon át szabad
+    // termékeket és felhasználókat hozzáadni, törölni, átnevezni, vonalkódot cserélni. A sales.tsv olvasása más
+    // szálakon is keres bennük, ezért csak készen kerülnek ki, és a módosítások közben is olvashatók.
+    private volatile Indexes indexes;
+
+    private record Indexes(Map<String, Article> articlesByName, Map<String, Article> articlesByBarcode,
+                           Map<String, User> usersByName) {
+    }
+
     public Article article(String name) {
         return findArticle(name).
                 orElseThrow(() -> new RuntimeException("nincs ilyen termék: " + name));
     }
 
     public Optional<Article> findArticle(String name) {
-        return articles.stream().filter(u -> u.name.equals(name)).findAny();
+        return Optional.ofNullable(index().articlesByName.get(name));
+    }
+
+    public Optional<Article> findArticleByBarcode(String barcode) {
+        return barcode == null ? Optional.empty() : Optional.ofNullable(index().articlesByBarcode.get(barcode));
     }
 
     public User user(String username) {
-        return users.stream().filter(u -> u.name.equals(username)).findAny().
+        return findUser(username).
                 orElseThrow(() -> new RuntimeException("no such user: " + username));
     }
+
+    public Optional<User> findUser(String username) {
+        return Optional.ofNullable(index().usersByName.get(username));
+    }
+
+    public void addArticle(Article article) {
+        Indexes i = index();
+        articles.add(article);
+        i.articlesByName.put(article.name, article);
+        if (article.barCode != null)
+            i.articlesByBarcode.putIfAbsent(article.barCode, article);
+    }
+
+    /**
+     * @return a törölt termék, vagy null, ha nem volt ilyen
+     */
+    public Article removeArticle(String name) {
+        Indexes i = index();
+        Article article = i.articlesByName.remove(name);
+        if (article == null)
+            return null;
+        articles.remove(article);
+        barcodeRemoved(i, article, article.barCode);
+        return article;
+    }
+
+    public void setBarcode(Article article, String barcode) {
+        Indexes i = index();
+        String oldBarcode = article.barCode;
+        article.barCode = barcode;
+        barcodeRemoved(i, article, oldBarcode);
+        if (barcode != null)
+            i.articlesByBarcode.putIfAbsent(barcode, article);
+    }
+
+    private void barcodeRemoved(Indexes i, Article article, String barcode) {
+        if (barcode == null || i.articlesByBarcode.get(barcode) != article)
+            return;
+        i.articlesByBarcode.remove(barcode);
+        // ha több termék is ezt a vonalkódot viselte, ezentúl a következő találat legyen az
+        for (Article a : articles)
+            if (barcode.equals(a.barCode)) {
+                i.articlesByBarcode.put(barcode, a);
+                break;
+            }
+    }
+
+    public void addUser(User user) {
+        if (index().usersByName.putIfAbsent(user.name, user) != null)
+            throw new RuntimeException("user '" + user.name + "' already exists");
+        users.add(user);
+    }
+
+    /**
+     * @return a törölt felhasználó, vagy null, ha nem volt ilyen
+     */
+    public User removeUser(String username) {
+        User user = index().usersByName.remove(username);
+        if (user != null)
+            users.remove(user);
+        return user;
+    }
+
+    public void renameUser(String oldName, String newName) {
+        Indexes i = index();
+        if (i.usersByName.containsKey(newName))
+            throw new RuntimeException("user '" + newName + "' already exists (tried to rename user '" + oldName + "')");
+        User user = user(oldName);
+        i.usersByName.remove(oldName);
+        user.name = newName;
+        i.usersByName.put(newName, user);
+    }
+
+    /**
+     * Újraépíti a keresőtáblákat, ha a listákat közvetlenül módosították.
+     */
+    public synchronized void reindex() {
+        Map<String, Article> articlesByName = new ConcurrentHashMap<>(), articlesByBarcode = new ConcurrentHashMap<>();
+        Map<String, User> usersByName = new ConcurrentHashMap<>();
+        for (Article a : articles) {
+            articlesByName.putIfAbsent(a.name, a);
+            if (a.barCode != null)
+                articlesByBarcode.putIfAbsent(a.barCode, a);
+        }
+        for (User u : users)
+            usersByName.putIfAbsent(u.name, u);
+        indexes = new Indexes(articlesByName, articlesByBarcode, usersByName);
+    }
+
+    private Indexes index() {
+        Indexes i = indexes;
+        if (i == null) {
+            synchronized (this) {
+                if (indexes == null)
+                    reindex();
+                i = indexes;
+            }
+        }
+        return i;
+    }
 }
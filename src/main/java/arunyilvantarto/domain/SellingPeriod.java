@@ -1,6 +1,7 @@
 package arunyilvantarto.domain;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
 import static java.util.stream.Collectors.groupingBy;
@@ -30,6 +31,20 @@ public class SellingPeriod {
                 sum();
     }
 
+    public SellingPeriod copy() {
+        SellingPeriod p = new SellingPeriod();
+        p.id = id;
+        p.username = username;
+        p.beginTime = beginTime;
+        p.openCash = openCash;
+        p.endTime = endTime;
+        p.closeCash = closeCash;
+        p.openCreditCardAmount = openCreditCardAmount;
+        p.closeCreditCardAmount = closeCreditCardAmount;
+        p.sales = sales == null ? null : new ArrayList<>(sales);
+        return p;
+    }
+
     public boolean isClosed() {
         return endTime != null;
     }
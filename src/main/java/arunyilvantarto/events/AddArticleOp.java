@@ -16,12 +16,12 @@ public class AddArticleOp implements AdminOperation {
 
     @Override
     public void execute(DataRoot data, Main main) {
-        data.articles.add(article);
+        data.addArticle(article);
     }
 
     @Override
     public void undo(DataRoot data, Main main) {
-        if (!data.articles.removeIf(a -> a.name.equals(article.name)))
+        if (data.removeArticle(article.name) == null)
             throw new RuntimeException(article.name + " not in existing articles");
     }
 
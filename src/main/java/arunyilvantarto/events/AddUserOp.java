@@ -15,14 +15,12 @@ public class AddUserOp implements AdminOperation {
 
     @Override
     public void execute(DataRoot data, Main main) {
-        if (data.users.stream().anyMatch(u -> u.name.equals(user.name)))
-            throw new RuntimeException("user '" + user.name + "' already exists (tried to rename user '" + user.name + "')");
-        data.users.add(user);
+        data.addUser(user);
     }
 
     @Override
     public void undo(DataRoot data, Main main) {
-        if (!data.users.removeIf(u -> u.name.equals(user.name)))
+        if (data.removeUser(user.name) == null)
             throw new IllegalStateException("no such user: " + user.name);
     }
 
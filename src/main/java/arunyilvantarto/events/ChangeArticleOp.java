@@ -5,8 +5,6 @@ import arunyilvantarto.domain.Article;
 import arunyilvantarto.domain.DataRoot;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 
-import java.util.function.BiConsumer;
-
 @JsonTypeName("ChangeArticle")
 public class ChangeArticleOp implements AdminOperation {
 
@@ -25,13 +23,13 @@ public class ChangeArticleOp implements AdminOperation {
     @Override
     public void execute(DataRoot data, Main main) {
         Article article = data.article(articleID);
-        property.setter.accept(article, newValue);
+        property.setter.set(data, article, newValue);
     }
 
     @Override
     public void undo(DataRoot data, Main main) {
         Article article = data.article(articleID);
-        property.setter.accept(article, oldValue);
+        property.setter.set(data, article, oldValue);
     }
 
     @Override
@@ -41,14 +39,18 @@ public class ChangeArticleOp implements AdminOperation {
 
     public enum ArticleProperty {
 
-        BARCODE((a, v) -> a.barCode = (String) v),
-        PRICE((a, v) -> a.sellingPrice = (int) v),
-        QUANTITY((a, v) -> a.stockQuantity = (int) v);
+        BARCODE((d, a, v) -> d.setBarcode(a, (String) v)),
+        PRICE((d, a, v) -> a.sellingPrice = (int) v),
+        QUANTITY((d, a, v) -> a.stockQuantity = (int) v);
 
-        final BiConsumer<Article, Object> setter;
+        final Setter setter;
 
-        ArticleProperty(BiConsumer<Article, Object> setter) {
+        ArticleProperty(Setter setter) {
             this.setter = setter;
         }
     }
+
+    interface Setter {
+        void set(DataRoot data, Article article, Object value);
+    }
 }
@@ -19,12 +19,12 @@ public class ChangePasswordOp implements AdminOperation {
 
     @Override
     public void execute(DataRoot data, Main main) {
-        data.users.stream().filter(u->u.name.equals(username)).findAny().get().passwordHash = newPassword;
+        data.user(username).passwordHash = newPassword;
     }
 
     @Override
     public void undo(DataRoot data, Main main) {
-        data.users.stream().filter(u->u.name.equals(username)).findAny().get().passwordHash = oldPassword;
+        data.user(username).passwordHash = oldPassword;
     }
 
     @Override
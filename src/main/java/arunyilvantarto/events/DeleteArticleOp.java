@@ -16,13 +16,13 @@ public class DeleteArticleOp implements AdminOperation {
 
     @Override
     public void execute(DataRoot data, Main main) {
-        if (!data.articles.removeIf(a -> a.name.equals(article.name)))
+        if (data.removeArticle(article.name) == null)
             throw new RuntimeException("no such article: " + article.name);
     }
 
     @Override
     public void undo(DataRoot data, Main main) {
-        data.articles.add(article);
+        data.addArticle(article);
     }
 
     @Override
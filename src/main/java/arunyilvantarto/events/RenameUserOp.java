@@ -2,7 +2,7 @@ package arunyilvantarto.events;
 
 import arunyilvantarto.Main;
 import arunyilvantarto.SalesIO;
-import arunyilvantarto.SalesVisitor;
+import arunyilvantarto.SalesRecord;
 import arunyilvantarto.domain.DataRoot;
 import arunyilvantarto.domain.Sale;
 import arunyilvantarto.domain.SellingPeriod;
@@ -12,9 +12,9 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.stream.Stream;
 
 import static java.nio.file.StandardOpenOption.*;
 
@@ -34,31 +34,37 @@ public class RenameUserOp implements AdminOperation {
 
     @Override
     public void execute(DataRoot data, Main main) {
-        if (data.users.stream().anyMatch(u -> u.name.equals(newName)))
-            throw new RuntimeException("user '" + newName + "' already exists (tried to rename user '" + oldName + "')");
-        data.user(oldName).name = newName;
+        data.renameUser(oldName, newName);
         doRename(data, main, oldName, newName);
     }
 
     @Override
     public void undo(DataRoot data, Main main) {
-        data.user(newName).name = oldName;
+        data.renameUser(newName, oldName);
         doRename(data, main, newName, oldName);
     }
 
     private void doRename(DataRoot data, Main main, String oldName, String newName) {
         try {
             Path path = main.salesTsvPath().resolveSibling("sales_tmp.tsv");
-            try (SalesIO out = new SalesIO(data, FileChannel.open(path, CREATE_NEW, WRITE))) {
-                main.salesIO.read(new UserRenamingSalesVisitor(out, oldName, newName));
+            try (SalesIO out = new SalesIO(data, FileChannel.open(path, CREATE_NEW, WRITE));
+                 Stream<SalesRecord> records = main.salesIO.stream()) {
+                out.begin();
+                UserRenamingWriter writer = new UserRenamingWriter(out, oldName, newName);
+                records.forEachOrdered(writer::write);
             }
-            main.salesIO.close();
+            main.salesIO.closeDiscardingSidecars();
             String now = LocalDateTime.now().format(DateTimeFormatter.ofPattern("uuuuMMdd_HHmmss"));
             Files.move(main.salesTsvPath(), main.salesTsvPath().resolveSibling("sales_ren_" + now + ".tsv"));
             Files.move(path, main.salesTsvPath());
-            main.salesIO = new SalesIO(main.dataRoot, FileChannel.open(main.salesTsvPath(), READ, WRITE));
+            main.salesIO = new SalesIO(main.dataRoot, main.salesTsvPath(),
+                    FileChannel.open(main.salesTsvPath(), READ, WRITE), main.salesCheckpointPath(),
+                    main.salesManifestPath(), main.salesTimeIndexPath(), main.salesArticleIndexPath(),
+                    main.salesAggregatesPath(), Main.SALES_WRITE_POLICY);
+            // a beolvasás alatt az eladási események sorba állnak, így nem kell az FX szálon megvárni
+            main.executor.execute(main::loadSalesLedger);
         } catch (IOException e) {
-            data.user(newName).name = oldName;
+            data.renameUser(newName, oldName);
             throw new RuntimeException(e);
         }
     }
@@ -68,61 +74,59 @@ public class RenameUserOp implements AdminOperation {
         return false;
     }
 
-    private static class UserRenamingSalesVisitor implements SalesVisitor {
+    private static class UserRenamingWriter {
         private final SalesIO delegate;
         private final String oldName;
         private final String newName;
 
-        public UserRenamingSalesVisitor(SalesIO delegate, String oldName, String newName) {
+        // a rekordok nincsenek periódusokhoz rendelve, a ZÁRÁS sorba a nyitott periódus adatai kerülnek
+        private SellingPeriod openPeriod;
+
+        public UserRenamingWriter(SalesIO delegate, String oldName, String newName) {
             this.delegate = delegate;
             this.oldName = oldName;
             this.newName = newName;
         }
 
-        @Override
-        public void begin() {
-            delegate.begin();
-        }
-
-        @Override
-        public void beginPeriod(SellingPeriod period, String comment) {
-            if (period.username.equals(oldName))
-                period.username = newName;
-            delegate.beginPeriod(period, comment);
-        }
-
-        @Override
-        public void sale(Sale sale) {
-            if (sale.seller.equals(oldName))
-                sale.seller = newName;
-            if (sale.billID instanceof Sale.StaffBillID)
-                if (((Sale.StaffBillID) sale.billID).username.equals(oldName))
-                    sale.billID = new Sale.StaffBillID(newName);
-            delegate.sale(sale);
-        }
-
-        @Override
-        public void endPeriod(SellingPeriod period, String comment) {
-            if (period.username.equals(oldName))
-                period.username = newName;
-            delegate.endPeriod(period, comment);
-        }
-
-        @Override
-        public void modifyCash(String username, int cash, int creditCardAmount) {
-            if (username.equals(oldName))
-                username = newName;
-            delegate.modifyCash(username, cash, creditCardAmount);
-        }
-
-        @Override
-        public void staffBillPay(Sale.StaffBillID bill, String administrator, int money,
-                                 Instant timestamp) {
-            if (bill.username.equals(oldName))
-                bill = new Sale.StaffBillID(newName);
-            if (administrator.equals(oldName))
-                administrator = newName;
-            delegate.staffBillPay(bill, administrator, money);
+        public void write(SalesRecord record) {
+            switch (record) {
+                case SalesRecord.PeriodOpen o -> {
+                    openPeriod = o.period();
+                    if (openPeriod.username.equals(oldName))
+                        openPeriod.username = newName;
+                    delegate.beginPeriod(openPeriod, o.comment());
+                }
+                case SalesRecord.SaleRecord r -> {
+                    Sale sale = r.sale();
+                    if (sale.seller.equals(oldName))
+                        sale.seller = newName;
+                    if (sale.billID instanceof Sale.StaffBillID)
+                        if (((Sale.StaffBillID) sale.billID).username.equals(oldName))
+                            sale.billID = new Sale.StaffBillID(newName);
+                    delegate.sale(sale);
+                }
+                case SalesRecord.PeriodClose c -> {
+                    if (openPeriod == null || openPeriod.id != c.periodID())
+                        throw new IllegalStateException("period " + c.periodID() + " is not open");
+                    openPeriod.endTime = c.endTime();
+                    openPeriod.closeCash = c.closeCash();
+                    openPeriod.closeCreditCardAmount = c.closeCreditCardAmount();
+                    delegate.endPeriod(openPeriod, c.comment());
+                    openPeriod = null;
+                }
+                case SalesRecord.CashModification m ->
+                        delegate.modifyCash(m.username().equals(oldName) ? newName : m.username(), m.cash(),
+                                m.creditCardAmount());
+                case SalesRecord.StaffBillPayment p -> {
+                    Sale.StaffBillID bill = p.bill();
+                    if (bill.username.equals(oldName))
+                        bill = new Sale.StaffBillID(newName);
+                    String administrator = p.administrator();
+                    if (administrator.equals(oldName))
+                        administrator = newName;
+                    delegate.staffBillPay(bill, administrator, p.money(), p.timestamp());
+                }
+            }
         }
     }
 }
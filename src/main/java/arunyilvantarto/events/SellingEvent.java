@@ -4,6 +4,8 @@ import arunyilvantarto.domain.Sale;
 import arunyilvantarto.domain.SellingPeriod;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 
+import java.util.List;
+
 public sealed interface SellingEvent extends InventoryEvent {
 
     @JsonTypeName("BeginPeriod")
@@ -14,6 +16,13 @@ public sealed interface SellingEvent extends InventoryEvent {
     record SaleEvent(Sale sale) implements SellingEvent {
     }
 
+    /**
+     * Egy vásárlás összes tétele, egyetlen sorozatként kerül a naplóba.
+     */
+    @JsonTypeName("Payment")
+    record PaymentEvent(int paymentID, List<Sale> sales) implements SellingEvent {
+    }
+
     @JsonTypeName("EndPeriod")
     record EndPeriodEvent(SellingPeriod period, String comment) implements SellingEvent {
     }
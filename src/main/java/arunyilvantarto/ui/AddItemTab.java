@@ -48,7 +48,7 @@ public class AddItemTab {
         articleField.setOnAction(evt -> {
             String barcode = articleField.getText();
 
-            app.dataRoot.articles.stream().filter(a -> a.barCode.equals(barcode)).findAny().ifPresent(a -> {
+            app.dataRoot.findArticleByBarcode(barcode).ifPresent(a -> {
                 articleField.setText(a.name);
                 quantityField.requestFocus();
             });
@@ -60,8 +60,8 @@ public class AddItemTab {
         addProductButton.setOnAction(evt -> {
             Item item = new Item();
             item.id = UUID.randomUUID();
-            item.article = app.dataRoot.articles.stream().filter(a -> a.name.equals(articleField.getText()) ||
-                    a.barCode.equals(articleField.getText())).findAny().orElse(null);
+            item.article = app.dataRoot.findArticle(articleField.getText()).
+                    or(() -> app.dataRoot.findArticleByBarcode(articleField.getText())).orElse(null);
             if (item.article == null) {
                 Alert alert = new Alert(Alert.AlertType.WARNING);
                 alert.setTitle("Nincs ilyen termék");
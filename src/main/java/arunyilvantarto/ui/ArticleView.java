@@ -1,5 +1,6 @@
 package arunyilvantarto.ui;
 
+import arunyilvantarto.Main;
 import arunyilvantarto.SalesVisitor;
 import arunyilvantarto.domain.Article;
 import arunyilvantarto.events.InventoryEvent;
@@ -21,10 +22,14 @@ import org.tbee.javafx.scene.layout.MigPane;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import static arunyilvantarto.ui.UIUtil.TableBuilder.UNLIMITED_WIDTH;
 import static java.time.format.DateTimeFormatter.ISO_LOCAL_DATE;
 import static javafx.beans.binding.Bindings.createBooleanBinding;
 
@@ -206,6 +211,7 @@ public class ArticleView {
             TextInputDialog d = new TextInputDialog(Integer.toString(article.stockQuantity));
             d.setTitle("Termék mennyisége");
             d.setContentText("Darabszám: ");
+            showSoldSinceLastPurchase(d);
             d.getDialogPane().lookupButton(ButtonType.OK).disableProperty().bind(createBooleanBinding(
                     () -> !d.getEditor().getText().matches("[0-9]+"), d.getEditor().textProperty()
             ));
@@ -242,37 +248,98 @@ public class ArticleView {
 
         LineChart<String, Number> chart = new LineChart<>(xAxis, yAxis);
         XYChart.Series<String, Number> series = new XYChart.Series<>();
-        articlesTab.main.salesIO.read(new SalesVisitor() {
-            private final Map<LocalDate, Integer> sales = new HashMap<>();
-
-            @Override
-            public void sale(Sale sale) {
-                int value = sale.article != null && sale.article.name.equals(article.name) ? 1 : 0;
-                sales.compute(LocalDate.from(sale.timestamp.atZone(ZoneId.systemDefault())), (d, c) -> c == null ? value : c + value);
-            }
-
-            @Override
-            public void end() {
-                for (LocalDate d = fromDatePicker.getValue(); !d.isAfter(toDatePicker.getValue()); d = d.plusDays(1)) {
-                    if (sales.containsKey(d)) {
-                        series.getData().add(new XYChart.Data<>(d.toString(), sales.get(d)));
-                    }
-                }
-            }
-        });
         chart.getData().add(series);
 
         chart.setLegendVisible(false);
 
+        TableView<Sale> salesTable = new UIUtil.TableBuilder<Sale>(List.of()).
+                col("Időpont", 130, UNLIMITED_WIDTH, sale -> UIUtil.toDateString(sale.timestamp)).
+                col("Mennyiség", 80, UNLIMITED_WIDTH, sale -> sale.quantity).
+                col("Ár", 80, UNLIMITED_WIDTH, sale -> sale.pricePerProduct + " Ft").
+                col("Eladó", 100, UNLIMITED_WIDTH, sale -> sale.seller).
+                placeholder("Nem volt eladás az időszakban").
+                build();
+
+        readSales(series, salesTable, fromDatePicker, toDatePicker);
+        fromDatePicker.valueProperty().addListener((o, old, value) ->
+                readSales(series, salesTable, fromDatePicker, toDatePicker));
+        toDatePicker.valueProperty().addListener((o, old, value) ->
+                readSales(series, salesTable, fromDatePicker, toDatePicker));
+
         MigPane datePickers = new MigPane().
                 add(new Label("Mettől: ")).
                 add(fromDatePicker, "grow, wrap").
                 add(new Label("Meddig: ")).
                 add(toDatePicker, "grow, wrap");
 
-        return new MigPane("fill", null, "[] [grow]").
+        return new MigPane("fill", null, "[] [grow] [grow]").
                 add(datePickers, "wrap, align center center").
-                add(chart, "span, grow");
+                add(chart, "span, grow, wrap").
+                add(salesTable, "span, grow");
+    }
+
+    /**
+     * A két kiválasztott nap közötti (mindkettőt beleértve) eladásokat a termékindexből olvassa be: az időpont-index
+     * alapján csak az időszak környékének, abból is csak ennek a terméknek a sorait.
+     */
+    private void readSales(XYChart.Series<String, Number> series, TableView<Sale> salesTable,
+                           DatePicker fromDatePicker, DatePicker toDatePicker) {
+        LocalDate from = fromDatePicker.getValue(), to = toDatePicker.getValue();
+        if (from == null || to == null || from.isAfter(to))
+            return;
+        Main main = articlesTab.main;
+        main.runInBackground(() -> {
+            ZoneId zone = ZoneId.systemDefault();
+            Instant fromTime = from.atStartOfDay(zone).toInstant();
+            Instant toTime = to.plusDays(1).atStartOfDay(zone).toInstant();
+            List<Sale> sales = new ArrayList<>();
+            Map<LocalDate, Integer> quantities = new HashMap<>();
+            main.salesIO.readArticle(article.name, new SalesVisitor() {
+                @Override
+                public void sale(Sale sale) {
+                    if (sale.timestamp.isBefore(fromTime) || !sale.timestamp.isBefore(toTime))
+                        return;
+                    sales.add(sale);
+                    quantities.merge(LocalDate.ofInstant(sale.timestamp, zone), sale.quantity, Integer::sum);
+                }
+            }, fromTime, toTime);
+
+            List<XYChart.Data<String, Number>> data = new ArrayList<>();
+            for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1))
+                data.add(new XYChart.Data<>(d.toString(), quantities.getOrDefault(d, 0)));
+            Platform.runLater(() -> {
+                // közben már másik időszakot választottak
+                if (!from.equals(fromDatePicker.getValue()) || !to.equals(toDatePicker.getValue()))
+                    return;
+                series.getData().setAll(data);
+                salesTable.getItems().setAll(sales);
+            });
+        });
+    }
+
+    /**
+     * Leltározáshoz: a fejlécbe kiírja, mennyit vettünk legutóbb, és azóta mennyi fogyott; az eladásokat a
+     * termékindexből a háttérben olvassa be.
+     */
+    private void showSoldSinceLastPurchase(TextInputDialog d) {
+        Item last = article.items.stream().max(Comparator.comparing(item -> item.timestamp)).orElse(null);
+        if (last == null)
+            return;
+        d.setHeaderText("Legutóbbi beszerzés: " + UIUtil.toDateString(last.timestamp) + ", " +
+                last.purchaseQuantity + " db");
+        Main main = articlesTab.main;
+        main.runInBackground(() -> {
+            int[] sold = new int[1];
+            main.salesIO.readArticle(article.name, new SalesVisitor() {
+                @Override
+                public void sale(Sale sale) {
+                    if (!sale.timestamp.isBefore(last.timestamp))
+                        sold[0] += sale.quantity;
+                }
+            }, last.timestamp, null);
+            Platform.runLater(() -> d.setHeaderText("Legutóbbi beszerzés: " + UIUtil.toDateString(last.timestamp) +
+                    ", " + last.purchaseQuantity + " db; azóta eladva: " + sold[0] + " db"));
+        });
     }
 
     private void newItem() {
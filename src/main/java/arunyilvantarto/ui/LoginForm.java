@@ -87,7 +87,7 @@ public class LoginForm {
             return;
 
 
-        Optional<User> o = data.users.stream().filter(u -> u.name.equals(usernameField.field.getText())).findAny();
+        Optional<User> o = data.findUser(usernameField.field.getText());
         if (o.isEmpty() || o.get().deleted) {
             usernameField.showError("Ilyen nevű felhasználó nem létezik");
             return;
@@ -119,7 +119,7 @@ public class LoginForm {
 
 
         app.executor.execute(() -> {
-            SellingPeriod p = SellingTab.lastSellingPeriod(app.salesIO).lastSellingPeriod;
+            SellingPeriod p = SellingTab.lastSellingPeriod(app.salesLedger).lastSellingPeriod;
             if (p != null && p.endTime == null) {
                 Platform.runLater(() -> {
                     progressIndicator.setVisible(false);
@@ -2,14 +2,16 @@ package arunyilvantarto.ui;
 
 import arunyilvantarto.Main;
 import arunyilvantarto.OperationListener;
-import arunyilvantarto.SalesVisitor;
+import arunyilvantarto.SalesColumns;
+import arunyilvantarto.SalesIO;
 import arunyilvantarto.events.InventoryEvent;
+import arunyilvantarto.domain.Article;
 import arunyilvantarto.domain.Message;
-import arunyilvantarto.domain.Sale;
 import arunyilvantarto.domain.SellingPeriod;
 import arunyilvantarto.events.ClosePeriodOp;
 import arunyilvantarto.events.RenameUserOp;
 import arunyilvantarto.events.SellingEvent;
+import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.control.*;
@@ -29,7 +31,8 @@ public class RevenueTab implements OperationListener {
     private final Main main;
     private final AdminPage adminPage;
     private TableView<SellingPeriod> periodTable;
-    private TableView<Sale> salesInPeriodTable;
+    private TableView<Integer> salesInPeriodTable; // a kiválasztott periódus sorainak indexei
+    private SalesColumns.Cursor salesInPeriod;
     private List<SellingPeriod> periods = new ArrayList<>();
 
     private int cash, creditCardAmount;
@@ -60,35 +63,13 @@ public class RevenueTab implements OperationListener {
     }
 
     public Node build() {
-        Map<SellingPeriod, Integer> openCashMismatch = new HashMap<>();
-        Map<SellingPeriod, Integer> closeCashMismatch = new HashMap<>();
-
-        cash = 0;
-        creditCardAmount = 0;
-        main.salesIO.read(new SalesVisitor() {
-            @Override
-            public void beginPeriod(SellingPeriod period, String comment) {
-                if (period.openCash != cash)
-                    openCashMismatch.put(period, cash);
-                periods.add(period);
-            }
-
-            @Override
-            public void endPeriod(SellingPeriod period, String comment) {
-                int c = period.remainingCash(period.closeCreditCardAmount - period.openCreditCardAmount);
-                if (period.closeCash != c)
-                    closeCashMismatch.put(period, c);
-
-                cash = period.closeCash;
-                creditCardAmount = period.closeCreditCardAmount;
-            }
+        periods.addAll(main.salesLedger.periods());
+        Map<SellingPeriod, Integer> openCashMismatch = main.salesLedger.openCashMismatches();
+        Map<SellingPeriod, Integer> closeCashMismatch = main.salesLedger.closeCashMismatches();
 
-            @Override
-            public void modifyCash(String username, int cash, int creditCardAmount) {
-                RevenueTab.this.cash = cash;
-                RevenueTab.this.creditCardAmount = creditCardAmount;
-            }
-        });
+        SalesIO.LastPeriod cashState = main.salesLedger.lastPeriod();
+        cash = cashState.cash();
+        creditCardAmount = cashState.creditCardAmount();
 
         periodTable = new UIUtil.TableBuilder<>(periods).
                 col("Nyitás", 120, 180, p -> {
@@ -123,14 +104,19 @@ public class RevenueTab implements OperationListener {
                 }).
                 col("Nyitó bk.", 80, 90, p -> p.openCreditCardAmount + " Ft").
                 col("Záró bk.", 80, 90, p -> p.endTime == null ? "" : p.closeCreditCardAmount + " Ft").
-                col("Forgalom", 90, 150, p -> p.revenue() + " Ft").
+                col("Forgalom", 90, 150, p -> main.salesLedger.revenue(p) + " Ft").
                 build();
 
-        salesInPeriodTable = new UIUtil.TableBuilder<Sale>(List.of()).
-                col("Termék", 100, UIUtil.TableBuilder.UNLIMITED_WIDTH,
-                        s -> s.article == null ? "" : s.article.name).
-                col("Mennyiség", 120, 100, s -> s.quantity).
-                col("Bevétel", 100, 100, s -> s.pricePerProduct * s.quantity).
+        salesInPeriodTable = new UIUtil.TableBuilder<Integer>(List.of()).
+                col("Termék", 100, UIUtil.TableBuilder.UNLIMITED_WIDTH, i -> {
+                    Article article = salesInPeriod.at(i).article();
+                    return article == null ? "" : article.name;
+                }).
+                col("Mennyiség", 120, 100, i -> salesInPeriod.at(i).quantity()).
+                col("Bevétel", 100, 100, i -> {
+                    var s = salesInPeriod.at(i);
+                    return s.pricePerProduct() * s.quantity();
+                }).
                 placeholder("Nem volt termék eladva").
                 build();
 
@@ -139,7 +125,20 @@ public class RevenueTab implements OperationListener {
                 salesInPeriodTable.setVisible(false);
             else {
                 salesInPeriodTable.setVisible(true);
-                salesInPeriodTable.getItems().setAll(value.sales);
+                salesInPeriodTable.getItems().clear();
+                // régebbi periódusnál a ledger a fájlból olvashatja be
+                main.runInBackground(() -> {
+                    SalesColumns.Cursor sales = main.salesLedger.periodSales(value);
+                    Platform.runLater(() -> {
+                        if (periodTable.getSelectionModel().getSelectedItem() != value)
+                            return;
+                        salesInPeriod = sales;
+                        List<Integer> rows = new ArrayList<>(sales.size());
+                        for (int i = 0; i < sales.size(); i++)
+                            rows.add(i);
+                        salesInPeriodTable.getItems().setAll(rows);
+                    });
+                });
 
                 periodOpenCommentPanel.setContent(main.dataRoot.messages.stream().
                         filter(m -> m.subject.equals(new Message.OpenPeriodSubject(value.id))).
@@ -156,10 +155,10 @@ public class RevenueTab implements OperationListener {
         MenuItem showProductMenuItem = new MenuItem("Termék megtekintése");
         showProductMenuItem.disableProperty().bind(createBooleanBinding(() ->
                         salesInPeriodTable.getSelectionModel().getSelectedItem() == null ||
-                                salesInPeriodTable.getSelectionModel().getSelectedItem().article == null,
+                                salesInPeriod.at(salesInPeriodTable.getSelectionModel().getSelectedItem()).article() == null,
                 salesInPeriodTable.getSelectionModel().selectedItemProperty()));
         showProductMenuItem.setOnAction(evt -> {
-            adminPage.showArticle(salesInPeriodTable.getSelectionModel().getSelectedItem().article);
+            adminPage.showArticle(salesInPeriod.at(salesInPeriodTable.getSelectionModel().getSelectedItem()).article());
         });
         salesInPeriodTable.setContextMenu(new ContextMenu(showProductMenuItem));
 
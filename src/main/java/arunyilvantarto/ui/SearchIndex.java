@@ -0,0 +1,170 @@
+package arunyilvantarto.ui;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Kisbetűsített nevek 1-3 hosszú részszavainak (n-gramjainak) indexe a {@link SearchableTable}-höz. Minden előtag
+ * egyben részszó is, így a kereséskor ugyanabból a jelöltlistából válogatjuk szét az előtag- és a részszó-találatokat.
+ * Ha az új keresőszöveg az előző folytatása, az előző találatok közül szűrünk tovább.
+ * <p>
+ * Adathalmazonként egy példány van, a {@link arunyilvantarto.Main} az eseményekből tartja naprakészen. A módosítások
+ * és a keresések a közös keresőszálon futnak, így a módosító metódusok bármelyik szálról hívhatók.
+ */
+public class SearchIndex<T> {
+
+    private static final int MAX_GRAM = 3;
+
+    // az összes index ezen az egy szálon épül és ezen kérdezzük le
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "search");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Function<T, List<String>> namesFunction;
+    private final List<Entry<T>> entries = new ArrayList<>();
+    private final Map<T, Entry<T>> entriesByItem = new HashMap<>();
+    private final Map<String, List<Entry<T>>> grams = new HashMap<>();
+
+    private String lastQuery;
+    private List<Entry<T>> lastResult;
+
+    public SearchIndex(Function<T, List<String>> namesFunction) {
+        this.namesFunction = namesFunction;
+    }
+
+    public void addAll(Collection<? extends T> items) {
+        List<T> copy = new ArrayList<>(items);
+        EXECUTOR.execute(() -> copy.forEach(item -> index(item, entries.size())));
+    }
+
+    public void add(T item) {
+        EXECUTOR.execute(() -> index(item, entries.size()));
+    }
+
+    public void remove(T item) {
+        EXECUTOR.execute(() -> {
+            Entry<T> entry = entriesByItem.remove(item);
+            if (entry != null)
+                entry.removed = true;
+            lastQuery = null;
+        });
+    }
+
+    /**
+     * Az elem neveinek megváltozása után újraindexeli, a helye a sorrendben marad.
+     */
+    public void update(T item) {
+        EXECUTOR.execute(() -> {
+            Entry<T> entry = entriesByItem.get(item);
+            if (entry == null)
+                return;
+            entry.removed = true;
+            index(item, entry.ordinal);
+        });
+    }
+
+    /**
+     * A feladatot a keresőszálon futtatja, ahol a {@link #search} hívható.
+     */
+    void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    private void index(T item, int ordinal) {
+        Entry<T> entry = new Entry<>(item, ordinal, namesFunction.apply(item).stream().
+                map(String::toLowerCase).toArray(String[]::new));
+        if (ordinal == entries.size())
+            entries.add(entry);
+        else
+            entries.set(ordinal, entry);
+        entriesByItem.put(item, entry);
+        for (String name : entry.names)
+            for (int n = 1; n <= MAX_GRAM; n++)
+                for (int i = 0; i + n <= name.length(); i++) {
+                    List<Entry<T>> posting = grams.computeIfAbsent(name.substring(i, i + n), k -> new ArrayList<>());
+                    if (posting.isEmpty() || posting.get(posting.size() - 1) != entry)
+                        posting.add(entry);
+                }
+        lastQuery = null;
+    }
+
+    /**
+     * @return először a valamelyik nevükkel a keresőszöveggel kezdődő elemek, utána azok, amelyeknek valamelyik neve
+     * tartalmazza, mindkét csoport a hozzáadás sorrendjében; közülük csak azok, amelyekre a filter teljesül
+     */
+    List<T> search(String query, Predicate<? super T> filter) {
+        query = query.toLowerCase();
+
+        List<Entry<T>> candidates;
+        if (lastQuery != null && !lastQuery.isEmpty() && query.startsWith(lastQuery))
+            candidates = lastResult;
+        else if (query.isEmpty())
+            candidates = entries;
+        else {
+            candidates = List.of();
+            int n = Math.min(MAX_GRAM, query.length());
+            for (int i = 0; i + n <= query.length(); i++) {
+                // a legritkább n-gram listáján a legkevesebb a jelölt
+                List<Entry<T>> posting = grams.getOrDefault(query.substring(i, i + n), List.of());
+                if (i == 0 || posting.size() < candidates.size())
+                    candidates = posting;
+            }
+        }
+
+        List<Entry<T>> prefixMatches = new ArrayList<>(), substringMatches = new ArrayList<>();
+        for (Entry<T> entry : candidates) {
+            if (entry.removed)
+                continue;
+            if (entry.anyNameStartsWith(query))
+                prefixMatches.add(entry);
+            else if (entry.anyNameContains(query))
+                substringMatches.add(entry);
+        }
+
+        // a szűkített jelöltlista és az újraindexelt elemek miatt az n-gram listák sincsenek hozzáadási sorrendben
+        prefixMatches.sort(Comparator.comparingInt(e -> e.ordinal));
+        substringMatches.sort(Comparator.comparingInt(e -> e.ordinal));
+        lastQuery = query;
+        lastResult = new ArrayList<>(prefixMatches.size() + substringMatches.size());
+        lastResult.addAll(prefixMatches);
+        lastResult.addAll(substringMatches);
+
+        List<T> result = new ArrayList<>(lastResult.size());
+        for (Entry<T> entry : lastResult)
+            if (filter.test(entry.item))
+                result.add(entry.item);
+        return result;
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final int ordinal;
+        final String[] names;
+        boolean removed;
+
+        Entry(T item, int ordinal, String[] names) {
+            this.item = item;
+            this.ordinal = ordinal;
+            this.names = names;
+        }
+
+        boolean anyNameStartsWith(String query) {
+            for (String name : names)
+                if (name.startsWith(query))
+                    return true;
+            return false;
+        }
+
+        boolean anyNameContains(String query) {
+            for (String name : names)
+                if (name.contains(query))
+                    return true;
+            return false;
+        }
+    }
+}
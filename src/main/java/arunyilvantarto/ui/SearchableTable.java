@@ -1,16 +1,14 @@
 package arunyilvantarto.ui;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.scene.Node;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import org.tbee.javafx.scene.layout.MigPane;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.function.BiPredicate;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 
 public class SearchableTable<T> {
@@ -18,20 +16,36 @@ public class SearchableTable<T> {
     public final TextField textField = new TextField();
     public final TableView<T> table;
 
-    public SearchableTable(TableView<T> table, Function<T, List<String>> namesFunction) {
+    private final SearchIndex<T> index;
+    private final Predicate<? super T> filter;
+    private volatile int generation;
+
+    public SearchableTable(TableView<T> table, SearchIndex<T> index) {
+        this(table, index, item -> true);
+    }
+
+    public SearchableTable(TableView<T> table, SearchIndex<T> index, Predicate<? super T> filter) {
         this.table = table;
-        List<T> items = new ArrayList<>(table.getItems());
-        textField.textProperty().addListener((o, old, text)->{
-            List<T> l1 = items.stream().
-                    filter(e->namesFunction.apply(e).stream().anyMatch(s->s.toLowerCase().startsWith(text.toLowerCase()))).
-                    collect(Collectors.toList());
-            l1.addAll(items.stream().
-                    filter(e->!l1.contains(e)&&
-                            namesFunction.apply(e).stream().anyMatch(s->s.toLowerCase().contains(text.toLowerCase()))).
-                    collect(Collectors.toList()));
-            table.setItems(FXCollections.observableList(l1));
-            if (table.getSelectionModel().getSelectedItem() == null)
-                table.getSelectionModel().select(0);
+        this.index = index;
+        this.filter = filter;
+
+        textField.textProperty().addListener((o, old, text) -> search(text));
+    }
+
+    private void search(String text) {
+        int g = ++generation;
+        index.execute(() -> {
+            // ha közben újabb billentyűleütés jött, azt az utána következő feladat úgyis kiszámolja
+            if (g != generation)
+                return;
+            List<T> result = index.search(text, filter);
+            Platform.runLater(() -> {
+                if (g != generation)
+                    return;
+                table.setItems(FXCollections.observableList(result));
+                if (table.getSelectionModel().getSelectedItem() == null)
+                    table.getSelectionModel().select(0);
+            });
         });
     }
 
@@ -3,7 +3,7 @@ package arunyilvantarto.ui;
 import arunyilvantarto.Main;
 import arunyilvantarto.OperationListener;
 import arunyilvantarto.SalesIO;
-import arunyilvantarto.SalesVisitor;
+import arunyilvantarto.SalesLedger;
 import arunyilvantarto.domain.*;
 import arunyilvantarto.events.ClosePeriodOp;
 import arunyilvantarto.events.InventoryEvent;
@@ -12,7 +12,9 @@ import arunyilvantarto.events.SendMessageOp;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Platform;
-import javafx.beans.value.ObservableValue;
+import javafx.beans.binding.BooleanBinding;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
 import javafx.scene.Scene;
@@ -48,6 +50,8 @@ public class SellingTab implements OperationListener {
     private Node tickIconPane;
 
     private int paymentIDCounter;
+    // amíg az előző vásárlás nincs elmentve, nem lehet újabbat fizetni
+    private final BooleanProperty paymentInProgress = new SimpleBooleanProperty();
 
     @SuppressWarnings("ConstantConditions")
     private final Image tickIcon = new Image(SellingTab.class.getResource("/arunyilvantarto/tickIcon.png").toString());
@@ -80,7 +84,7 @@ public class SellingTab implements OperationListener {
     }
 
     private boolean tryOpen() {
-        SellingPeriodAndCash cashState = lastSellingPeriod(main.salesIO);
+        SellingPeriodAndCash cashState = lastSellingPeriod(main.salesLedger);
         SellingPeriod lastSellingPeriod = cashState.lastSellingPeriod;
         if (lastSellingPeriod != null && lastSellingPeriod.endTime == null)
             throw new IllegalStateException("nem volt lezárva");
@@ -112,34 +116,9 @@ public class SellingTab implements OperationListener {
         return true;
     }
 
-    public static SellingPeriodAndCash lastSellingPeriod(SalesIO salesIO) {
-        SellingPeriod[] p = new SellingPeriod[1];
-        int[] c = new int[3];
-        salesIO.read(new SalesVisitor() {
-
-            @Override
-            public void beginPeriod(SellingPeriod period, String comment) {
-                p[0] = period;
-            }
-
-            @Override
-            public void endPeriod(SellingPeriod period, String comment) {
-                c[0] = period.closeCash;
-                c[1] = period.closeCreditCardAmount;
-            }
-
-            @Override
-            public void modifyCash(String username, int cash, int creditCardAmount) {
-                c[0] = cash;
-                c[1] = creditCardAmount;
-            }
-
-            @Override
-            public void sale(Sale sale) {
-                c[2] = Math.max(sale.paymentID, c[2]);
-            }
-        });
-        return new SellingPeriodAndCash(p[0], c[0], c[1], c[2]);
+    public static SellingPeriodAndCash lastSellingPeriod(SalesLedger salesLedger) {
+        SalesIO.LastPeriod l = salesLedger.lastPeriod();
+        return new SellingPeriodAndCash(l.period(), l.cash(), l.creditCardAmount(), l.lastPaymentID());
     }
 
     public static class SellingPeriodAndCash {
@@ -235,7 +214,7 @@ public class SellingTab implements OperationListener {
             //     return;
             // }
 
-            main.dataRoot.articles.stream().filter(a -> Objects.equals(a.barCode, barcode)).findAny().ifPresent(a -> {
+            main.dataRoot.findArticleByBarcode(barcode).ifPresent(a -> {
                 addArticle(a, quantity);
                 Platform.runLater(() -> barcodeField.setText(""));
             });
@@ -313,10 +292,10 @@ public class SellingTab implements OperationListener {
         payButton.setOnAction(evt -> pay());
         UIUtil.assignShortcut(payButton, new KeyCodeCombination(SPACE));
 
-        ObservableValue<Boolean> hasNoItems = isEmpty(itemsTable.getItems());
+        BooleanBinding hasNoItems = isEmpty(itemsTable.getItems());
         stornoButton.disableProperty().bind(hasNoItems);
-        payFromStaffBillButton.disableProperty().bind(hasNoItems);
-        payButton.disableProperty().bind(hasNoItems);
+        payFromStaffBillButton.disableProperty().bind(hasNoItems.or(paymentInProgress));
+        payButton.disableProperty().bind(hasNoItems.or(paymentInProgress));
 
         return new FlowPane(selectArticleManuallyButton, stornoButton, payFromStaffBillButton, returnButton, payButton) {
             {
@@ -354,7 +333,7 @@ public class SellingTab implements OperationListener {
 
         TableView<Article> articlesTable = articlesTable();
         SearchableTable<Article> articleSearchableTable = new SearchableTable<>(articlesTable,
-                a -> a.barCode == null ? List.of(a.name) : List.of(a.name, a.barCode));
+                main.articleSearchIndex);
         articleSearchableTable.textField.setFocusTraversable(true);
 
         TextField quantityField = new TextField("1");
@@ -472,7 +451,8 @@ public class SellingTab implements OperationListener {
                 col("Felhasználók", 0, UNLIMITED_WIDTH, a -> a.name).
                 build();
 
-        SearchableTable<User> articleSearchableTable = new SearchableTable<>(usersTable, u -> List.of(u.name));
+        SearchableTable<User> articleSearchableTable = new SearchableTable<>(usersTable, main.userSearchIndex,
+                User::canPurchaseWithStaffBill);
         articleSearchableTable.textField.setFocusTraversable(true);
 
         Platform.runLater(articleSearchableTable.textField::requestFocus);
@@ -510,15 +490,27 @@ public class SellingTab implements OperationListener {
         }));
         delay.play();
 
-        sellingPeriod.sales.addAll(itemsTable.getItems());
+        List<Sale> sales = new ArrayList<>(itemsTable.getItems());
+        int salesPrice = sumPrice;
+        sellingPeriod.sales.addAll(sales);
+        itemsTable.getItems().clear();
+        sumPrice = 0;
+        updateSumPrice();
+        paymentInProgress.set(true);
 
         main.executor.execute(() -> {
-            itemsTable.getItems().forEach(sale -> main.onEvent(new SellingEvent.SaleEvent(sale)));
-            Platform.runLater(() -> {
-                itemsTable.getItems().clear();
-                sumPrice = 0;
-                sumPriceLabel.setVisible(false);
-            });
+            // a kosár egyetlen eseményként, egyetlen írással kerül a naplóba; ha nem sikerül elmenteni, a Main jelzi
+            // a hibát, mi pedig visszavesszük a periódusból, és visszatesszük a kosárba
+            main.onEvent(new SellingEvent.PaymentEvent(sales.get(0).paymentID, sales)).whenComplete((v, e) ->
+                    Platform.runLater(() -> {
+                        if (e != null) {
+                            sellingPeriod.sales.removeAll(sales);
+                            itemsTable.getItems().addAll(0, sales);
+                            sumPrice += salesPrice;
+                            updateSumPrice();
+                        }
+                        paymentInProgress.set(false);
+                    }));
         });
     }
 
@@ -528,7 +520,7 @@ public class SellingTab implements OperationListener {
         dialog.setHeaderText("Olvasd be a törlendő termék vonalkódját");
         dialog.getDialogPane().getStylesheets().add("/arunyilvantarto/selling-dialog.css");
         UIUtil.barcodeField(dialog.getEditor(), barcode -> {
-            main.dataRoot.articles.stream().filter(a -> Objects.equals(a.barCode, barcode)).findAny().ifPresent(article -> {
+            main.dataRoot.findArticleByBarcode(barcode).ifPresent(article -> {
                 dialog.close();
 
                 List<Sale> sales = new ArrayList<>(itemsTable.getItems());
@@ -569,7 +561,7 @@ public class SellingTab implements OperationListener {
         dialog.setHeaderText("Olvasd be a visszahozott termék vonalkódját");
         dialog.getDialogPane().getStylesheets().add("/arunyilvantarto/selling-dialog.css");
         UIUtil.barcodeField(dialog.getEditor(), barcode -> {
-            main.dataRoot.articles.stream().filter(a -> Objects.equals(a.barCode, barcode)).findAny().ifPresent(article -> {
+            main.dataRoot.findArticleByBarcode(barcode).ifPresent(article -> {
                 dialog.close();
                 addArticle(article, -1);
             });
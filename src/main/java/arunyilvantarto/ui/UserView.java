@@ -55,7 +55,7 @@ public class UserView {
             tabPane.getSelectionModel().select(staffBillTab);
 
         app.runInBackground(() -> {
-            app.salesIO.read(new SalesVisitor() {
+            app.salesLedger.visitStaffBill(user.name, new SalesVisitor() {
 
                 private int debt;
 
@@ -161,7 +161,7 @@ public class UserView {
             d.setContentText(user.name + " új neve: ");
             d.getDialogPane().lookupButton(ButtonType.OK).disableProperty().bind(createBooleanBinding(() ->
                     d.getEditor().getText().isEmpty() || d.getEditor().getText().equals(user.name)
-                            || app.dataRoot.users.stream().anyMatch(u -> u.name.equals(d.getEditor().getText())), d.getEditor().textProperty()));
+                            || app.dataRoot.findUser(d.getEditor().getText()).isPresent(), d.getEditor().textProperty()));
 
             d.showAndWait().ifPresent(newName -> app.onEvent(new RenameUserOp(user.name, newName)));
         });
@@ -57,7 +57,7 @@ public class UsersTab {
             dialog.setContentText("Név: ");
             dialog.getDialogPane().lookupButton(ButtonType.OK).disableProperty().bind(createBooleanBinding(() -> {
                 String n = dialog.getEditor().getText();
-                return n.isBlank() || data.users.stream().anyMatch(u -> u.name.equals(n));
+                return n.isBlank() || data.findUser(n).isPresent();
             }, dialog.getEditor().textProperty()));
             dialog.showAndWait().ifPresent(s -> {
                 User user = new User();
@@ -0,0 +1,103 @@
+package arunyilvantarto;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesIO#readArticle} a {@link SalesArticleIndex}-ből pontosan a termék eladásait adja, és az index
+ * mellékfájlját nem írja minden olvasás után.
+ */
+public class SalesArticleIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+        log.append(100, false);
+    }
+
+    @Test
+    public void readArticleMatchesFullRead() throws IOException {
+        try (SalesIO io = log.openIndexed()) {
+            assertArticleRead(io);
+        }
+        // a mentett indexből, a közben írt sorokkal kiegészítve
+        try (SalesIO io = log.openIndexed()) {
+            log.append(io, 5, true);
+            assertArticleRead(io);
+
+            Instant from = Instant.parse("2021-02-01T00:00:00Z"), to = Instant.parse("2021-02-10T00:00:00Z");
+            SalesTestLog.Trace range = new SalesTestLog.Trace();
+            io.readArticle("Kávé", range, from, to);
+            assertEquals(articleSales(SalesTestLog.salesBetween(SalesTestLog.trace(io, false), from, to), "Kávé"),
+                    articleSales(SalesTestLog.salesBetween(range.rows, from, to), "Kávé"));
+            assertTrue(range.rows.size() < 3 * SalesTimeIndex.ROWS_PER_ENTRY);
+        }
+    }
+
+    @Test
+    public void indexIsSavedInBatches() throws IOException {
+        long saved;
+        try (SalesIO io = log.openIndexed()) {
+            assertArticleRead(io);
+            saved = Files.size(log.articleIndex);
+
+            log.append(io, 10, false);
+            assertArticleRead(io);
+            assertArticleRead(io);
+            assertEquals(saved, Files.size(log.articleIndex));
+        }
+        // a lezáráskor menti a maradékot
+        long closed = Files.size(log.articleIndex);
+        assertTrue(closed > saved);
+        try (SalesIO io = log.openIndexed()) {
+            assertArticleRead(io);
+        }
+        assertEquals(closed, Files.size(log.articleIndex));
+    }
+
+    @Test
+    public void damagedIndexIsRebuilt() throws IOException {
+        try (SalesIO io = log.openIndexed()) {
+            assertArticleRead(io);
+        }
+        try (FileChannel channel = FileChannel.open(log.articleIndex, WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (SalesIO io = log.openIndexed()) {
+            assertArticleRead(io);
+        }
+        log.rewriteEarlyQuantity();
+        try (SalesIO io = log.openIndexed()) {
+            assertArticleRead(io);
+        }
+    }
+
+    private static void assertArticleRead(SalesIO io) {
+        List<String> all = SalesTestLog.trace(io, false);
+        for (String name : new String[]{"Kávé", "Túró Rudi", "Pogácsa", "nincs ilyen"}) {
+            SalesTestLog.Trace article = new SalesTestLog.Trace();
+            io.readArticle(name, article);
+            assertEquals(articleSales(all, name), article.rows);
+        }
+    }
+
+    private static List<String> articleSales(List<String> rows, String name) {
+        return rows.stream().filter(row -> row.startsWith("S ") && row.contains(" " + name + " ")).toList();
+    }
+}
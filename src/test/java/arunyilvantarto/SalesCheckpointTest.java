@@ -0,0 +1,78 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.SellingPeriod;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesCheckpoint}: a mentett állapotból folytatva, a mentés után írt sorokkal, és mentett állapot nélkül, a
+ * fájl végéről visszafelé olvasva is ugyanazt az állapotot kell adnia.
+ */
+public class SalesCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+    }
+
+    @Test
+    public void tailScanMatchesCheckpoint() throws IOException {
+        log.append(20, true);
+        String expected = "20 Kovács Éva nyitott 12 500 0 240";
+        assertEquals(expected, lastPeriod());
+        assertTrue(Files.exists(log.checkpoint));
+        assertEquals(expected, lastPeriod());
+
+        Files.delete(log.checkpoint);
+        assertEquals(expected, lastPeriod());
+
+        // lezárt periódus és utána befizetés: a kassza a ZÁRÁS sorból jön
+        log.append(1, false);
+        expected = "20 Kovács Éva lezárt 24 12000 300 252";
+        assertEquals(expected, lastPeriod());
+        Files.delete(log.checkpoint);
+        assertEquals(expected, lastPeriod());
+    }
+
+    @Test
+    public void checkpointCatchesUpWithLaterRows() throws IOException {
+        log.append(10, false);
+        String before = lastPeriod();
+        // mentett állapot nélkül írt sorok, a checkpoint ezek előtt áll
+        try (SalesIO io = new SalesIO(log.data, FileChannel.open(log.tsv, READ, WRITE))) {
+            log.append(io, 3, true);
+        }
+        String expected = "13 Kovács Éva nyitott 12 500 0 156";
+        assertNotEquals(before, expected);
+        assertEquals(expected, lastPeriod());
+        Files.delete(log.checkpoint);
+        assertEquals(expected, lastPeriod());
+    }
+
+    /**
+     * @return az utolsó periódus és a kassza állapota szövegként
+     */
+    private String lastPeriod() throws IOException {
+        try (SalesIO io = log.open(false, false)) {
+            SalesIO.LastPeriod last = io.readLastPeriod();
+            SellingPeriod p = last.period();
+            return p.id + " " + p.username + " " + (p.endTime == null ? "nyitott" : "lezárt") + " " + p.sales.size() +
+                    " " + last.cash() + " " + last.creditCardAmount() + " " + last.lastPaymentID();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Article;
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.events.SellingEvent;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesDailyRollups} értékei: egy egyszerű, soronkénti összesítéssel kell egyezniük, más időzónában mentett
+ * állapotból nem folytathatók, és a {@link SalesLedger} a kiírt eladásokkal frissíti őket.
+ */
+public class SalesDailyRollupsTest {
+
+    private static final LocalDate FROM = LocalDate.of(2020, 1, 1), TO = LocalDate.of(2040, 1, 1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+        log.append(30, true);
+    }
+
+    @Test
+    public void rollupsMatchSales() throws IOException {
+        ZoneId zone = ZoneId.of("Europe/Budapest");
+        try (SalesIO io = log.open(false, true)) {
+            assertRollups(expected(io, zone), io.readResumable(() -> new SalesDailyRollups(zone)));
+        }
+    }
+
+    @Test
+    public void stateOfOtherZoneIsRebuilt() throws IOException {
+        // itt egy periódus eladásai két napra esnek, a napok tehát mások
+        ZoneId zone = ZoneId.of("America/Los_Angeles");
+        try (SalesIO io = log.open(false, true)) {
+            io.readResumable(() -> new SalesDailyRollups(ZoneId.of("Europe/Budapest")));
+            Map<String, SortedMap<LocalDate, SalesDailyRollups.Rollup>> expected = expected(io, zone);
+            assertNotEquals(expected(io, ZoneId.of("Europe/Budapest")), expected);
+            assertRollups(expected, io.readResumable(() -> new SalesDailyRollups(zone)));
+        }
+    }
+
+    @Test
+    public void ledgerAppliesWrittenSales() throws Exception {
+        try (SalesIO io = log.open(false, true)) {
+            SalesLedger ledger = new SalesLedger();
+            ledger.load(io);
+            Article article = log.data.articles.get(0);
+            Sale sale = new Sale();
+            sale.timestamp = log.time();
+            sale.article = article;
+            sale.seller = "Kovács Éva";
+            sale.quantity = -2;
+            sale.pricePerProduct = article.sellingPrice;
+            sale.billID = new Sale.PeriodBillID(30);
+            sale.paymentID = ledger.lastPeriod().lastPaymentID() + 1;
+            ledger.write(io, new SellingEvent.SaleEvent(sale)).get();
+
+            LocalDate day = LocalDate.ofInstant(sale.timestamp, ZoneId.systemDefault());
+            SalesDailyRollups.Rollup r = expected(io, ZoneId.systemDefault()).get(article.name).get(day);
+            assertEquals(2, r.returnedQuantity());
+            assertEquals(r, ledger.articleDailyRollups(article.name, day, day).get(day));
+        }
+    }
+
+    private void assertRollups(Map<String, SortedMap<LocalDate, SalesDailyRollups.Rollup>> expected,
+                               SalesDailyRollups actual) {
+        for (Article article : log.data.articles)
+            assertEquals(article.name, expected.get(article.name), actual.article(article.name, FROM, TO));
+    }
+
+    /**
+     * Soronként, a {@link SalesDailyRollups}-tól függetlenül összesít.
+     *
+     * @return terméknév -> nap -> összesítő, minden termékre azokkal a napokkal, amikor bármit eladtak
+     */
+    private Map<String, SortedMap<LocalDate, SalesDailyRollups.Rollup>> expected(SalesIO io, ZoneId zone) {
+        Map<String, SortedMap<LocalDate, SalesDailyRollups.Rollup>> result = new HashMap<>();
+        for (Article article : log.data.articles)
+            result.put(article.name, new TreeMap<>());
+        io.read(new SalesVisitor() {
+            @Override
+            public void sale(Sale sale) {
+                LocalDate day = LocalDate.ofInstant(sale.timestamp, zone);
+                for (SortedMap<LocalDate, SalesDailyRollups.Rollup> days : result.values())
+                    days.putIfAbsent(day, SalesDailyRollups.Rollup.EMPTY);
+                SalesDailyRollups.Rollup r = result.get(sale.article.name).get(day);
+                int quantity = r.quantity() + sale.quantity;
+                int revenue = r.revenue();
+                int staffBillQuantity = r.staffBillQuantity();
+                if (sale.billID instanceof Sale.StaffBillID)
+                    staffBillQuantity += sale.quantity;
+                else
+                    revenue += sale.quantity * sale.pricePerProduct;
+                int returned = r.returnedQuantity() + (sale.quantity < 0 ? -sale.quantity : 0);
+                result.get(sale.article.name).put(day,
+                        new SalesDailyRollups.Rollup(quantity, revenue, staffBillQuantity, returned));
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+package arunyilvantarto;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesIO#compact()} szegmensei és tartalomjegyzéke: az olvasásoknak ugyanazt kell adniuk, mint a sales.tsv
+ * teljes beolvasásának.
+ */
+public class SalesIOCompactTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+    }
+
+    @Test
+    public void compactedReadMatchesTsv() throws IOException {
+        log.append(100, true);
+        List<String> expected = log.tsvTrace();
+
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            assertTrue(Files.exists(log.manifest));
+            assertTrue(log.segmentFiles() > 1);
+            assertEquals(expected, SalesTestLog.trace(io, false));
+            assertEquals(expected, SalesTestLog.trace(io, true));
+        }
+        try (SalesIO io = log.open(true, false)) {
+            assertEquals(expected, SalesTestLog.trace(io, false));
+            assertEquals(expected, SalesTestLog.trace(io, true));
+        }
+
+        // a lezáratlan periódus lezárása és újabbak után csak az utolsó szegmens bővül
+        log.append(30, false);
+        expected = log.tsvTrace();
+        try (SalesIO io = log.open(true, false)) {
+            assertEquals(expected, SalesTestLog.trace(io, false));
+            io.compact();
+            assertEquals(expected, SalesTestLog.trace(io, false));
+        }
+        byte[] incremental = Files.readAllBytes(log.manifest);
+        try (SalesIO io = log.open(true, false)) {
+            assertEquals(expected, SalesTestLog.trace(io, true));
+            io.discardCompacted();
+            assertFalse(Files.exists(log.manifest));
+            assertEquals(0, log.segmentFiles());
+            assertEquals(expected, SalesTestLog.trace(io, false));
+            io.compact();
+        }
+        assertArrayEquals(incremental, Files.readAllBytes(log.manifest));
+    }
+
+    @Test
+    public void segmentsOfRewrittenTsvAreDropped() throws IOException {
+        log.append(60, false);
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+        }
+        log.rewriteEarlyQuantity();
+        List<String> expected = log.tsvTrace();
+        try (SalesIO io = log.open(true, false)) {
+            assertEquals(expected, SalesTestLog.trace(io, false));
+        }
+        assertEquals(0, log.segmentFiles());
+    }
+
+    @Test
+    public void rangeReadsSkipOtherSegments() throws IOException {
+        log.append(100, false);
+        // a befizetések időpontja a mostani, így minden szegmens mostanáig tart: csak a tartomány utániak maradnak ki
+        Instant from = Instant.parse("2021-01-10T00:00:00Z"), to = Instant.parse("2021-01-20T00:00:00Z");
+        SalesTestLog.Trace all = new SalesTestLog.Trace();
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            io.read(all);
+        }
+        // a tömörítés után írt periódusok a sales.tsv-ben maradnak
+        log.append(10, false);
+
+        try (SalesIO io = log.open(true, false)) {
+            SalesTestLog.Trace full = new SalesTestLog.Trace(), range = new SalesTestLog.Trace();
+            io.read(full);
+            io.read(range, from, to);
+            assertEquals(SalesTestLog.salesBetween(full.rows, from, to),
+                    SalesTestLog.salesBetween(range.rows, from, to));
+            assertTrue(range.rows.size() < all.rows.size() / 2);
+            assertTrue(range.rows.containsAll(full.rows.subList(all.rows.size(), full.rows.size())));
+
+            SalesTestLog.Trace periods = new SalesTestLog.Trace();
+            io.readPeriods(periods, 20, 24);
+            assertEquals(periodRows(full.rows, 20, 24), periodRows(periods.rows, 20, 24));
+            assertTrue(periods.rows.size() < all.rows.size() / 2);
+
+            // a sales.tsv-ben maradt periódusokat is csak a kért tartományból olvassa
+            periods = new SalesTestLog.Trace();
+            io.readPeriods(periods, 102, 103);
+            assertEquals(periodRows(full.rows, 102, 103), periods.rows);
+        }
+    }
+
+    /**
+     * @return a periódusok NYITÁS sorától a következő nem kért periódus NYITÁS soráig tartó sorok
+     */
+    private static List<String> periodRows(List<String> rows, int fromPeriodID, int toPeriodID) {
+        int start = rows.indexOf(rows.stream().filter(row -> row.startsWith("B " + fromPeriodID + " ")).findFirst().
+                orElseThrow());
+        int end = rows.size();
+        for (int i = start; i < rows.size(); i++)
+            if (rows.get(i).startsWith("B " + (toPeriodID + 1) + " ")) {
+                end = i;
+                break;
+            }
+        return rows.subList(start, end);
+    }
+
+    @Test
+    public void abandonedStreamReleasesSegmentOnClose() throws IOException {
+        Assume.assumeTrue(Files.isDirectory(Paths.get("/proc/self/fd")));
+        log.append(60, false);
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            long before = openSegmentFiles();
+            try (Stream<SalesRecord> records = io.stream()) {
+                assertTrue(records.findFirst().isPresent());
+                assertEquals(before + 1, openSegmentFiles());
+            }
+            assertEquals(before, openSegmentFiles());
+
+            io.stream().forEach(record -> {
+            });
+            assertEquals(before, openSegmentFiles());
+        }
+    }
+
+    @Test
+    public void closeDiscardingSidecarsLeavesOnlyTsv() throws IOException {
+        log.append(60, false);
+        try (SalesIO io = log.openAll()) {
+            io.compact();
+            io.readResumable(SalesIOResumableTest.Totals::new);
+            io.read(new SalesTestLog.Trace(), log.time().minusSeconds(86400), log.time());
+            io.readArticle("Kávé", new SalesTestLog.Trace());
+        }
+        SalesIO io = log.openAll();
+        io.closeDiscardingSidecars();
+        try (Stream<Path> files = Files.list(log.dir)) {
+            assertEquals(List.of(log.tsv), files.toList());
+        }
+    }
+
+    private static long openSegmentFiles() throws IOException {
+        try (Stream<Path> fds = Files.list(Paths.get("/proc/self/fd"))) {
+            return fds.filter(fd -> {
+                try {
+                    return Files.readSymbolicLink(fd).getFileName().toString().startsWith("sales-");
+                } catch (IOException e) {
+                    return false;
+                }
+            }).count();
+        }
+    }
+}
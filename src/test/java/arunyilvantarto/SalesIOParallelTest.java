@@ -0,0 +1,75 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Article;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesIO#readParallel} és a {@link SalesIO#readCombining} darabolva, párhuzamosan olvas; ugyanazt kell
+ * adniuk, mint a soros {@link SalesIO#read}-nek, a tömörítés előtt és után is.
+ */
+public class SalesIOParallelTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Budapest");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        assertTrue("the chunked paths need a parallel common pool", ForkJoinPool.getCommonPoolParallelism() >= 2);
+        log = new SalesTestLog(folder.getRoot().toPath());
+        // kb. 2 MiB, így a sales.tsv is több darabra esik
+        log.append(1500, true);
+    }
+
+    @Test
+    public void parallelReadMatchesSequential() throws IOException {
+        List<String> expected = log.tsvTrace();
+        try (SalesIO io = log.open(false, false)) {
+            assertEquals(expected, SalesTestLog.trace(io, true));
+        }
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            assertTrue(log.segmentFiles() > 1);
+            assertEquals(expected, SalesTestLog.trace(io, true));
+        }
+    }
+
+    @Test
+    public void combiningReadMatchesSequential() throws IOException {
+        SalesDailyRollups expected = new SalesDailyRollups(ZONE);
+        try (SalesIO io = log.open(false, false)) {
+            io.read(expected);
+            assertRollupsEqual(expected, io.readCombining(new SalesDailyRollups(ZONE)));
+        }
+        try (SalesIO io = log.open(true, true)) {
+            io.compact();
+            assertRollupsEqual(expected, io.readCombining(new SalesDailyRollups(ZONE)));
+            // az első, mentett állapot nélküli beolvasás is darabolva összesít
+            assertRollupsEqual(expected, io.readResumable(() -> new SalesDailyRollups(ZONE)));
+            assertRollupsEqual(expected, io.readResumable(() -> new SalesDailyRollups(ZONE)));
+        }
+    }
+
+    private void assertRollupsEqual(SalesDailyRollups expected, SalesDailyRollups actual) {
+        LocalDate from = LocalDate.of(2020, 1, 1), to = LocalDate.of(2040, 1, 1);
+        for (Article article : log.data.articles) {
+            var rollups = expected.article(article.name, from, to);
+            assertFalse(rollups.isEmpty());
+            assertEquals(rollups, actual.article(article.name, from, to));
+        }
+    }
+}
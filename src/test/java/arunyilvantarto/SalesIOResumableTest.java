@@ -0,0 +1,175 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesIO#readResumable} mentett állapotai: a folytatott olvasásnak ugyanazt kell adnia, mint a teljesnek,
+ * és az átírt sales.tsv-hez nem szabad a régi állapotot használni.
+ */
+public class SalesIOResumableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+    }
+
+    @Test
+    public void resumesFromSavedState() throws IOException {
+        log.append(40, true);
+        Totals expected = fullTotals();
+        try (SalesIO io = log.open(false, true)) {
+            Totals totals = io.readResumable(Totals::new);
+            assertEquals(expected.toString(), totals.toString());
+            assertEquals(expected.rows, totals.seen);
+        }
+
+        // a nyitott periódus sorai még változhatnak, azokat újra kell olvasni, a korábbiakat nem
+        try (SalesIO io = log.open(false, true)) {
+            Totals totals = io.readResumable(Totals::new);
+            assertEquals(expected.toString(), totals.toString());
+            assertTrue(totals.seen > 0 && totals.seen < 20);
+        }
+
+        log.append(10, false);
+        expected = fullTotals();
+        try (SalesIO io = log.open(true, true)) {
+            io.compact();
+            Totals totals = io.readResumable(Totals::new);
+            assertEquals(expected.toString(), totals.toString());
+            assertTrue(totals.seen < expected.rows / 2);
+        }
+    }
+
+    @Test
+    public void stateOfRewrittenTsvIsDropped() throws IOException {
+        log.append(40, false);
+        try (SalesIO io = log.open(false, true)) {
+            io.readResumable(Totals::new);
+        }
+        log.rewriteEarlyQuantity();
+        Totals expected = fullTotals();
+        try (SalesIO io = log.open(false, true)) {
+            Totals totals = io.readResumable(Totals::new);
+            assertEquals(expected.toString(), totals.toString());
+            assertEquals(expected.rows, totals.seen);
+        }
+    }
+
+    @Test
+    public void stateOfReplacedTsvWithoutFileKeyIsDropped() throws IOException {
+        log.append(40, false);
+        try (SalesIO io = log.openWithoutFileKey(false, true)) {
+            io.readResumable(Totals::new);
+        }
+        // az átírt fájl a lefedett rész végéig ugyanolyan hosszú, és az ott végződő sor is ugyanaz, így csak az új
+        // generáció mutatja, hogy a mentett állapot nem ehhez a fájlhoz tartozik
+        log.rewriteEarlyQuantity();
+        Files.delete(log.checkpoint);
+        Totals expected = fullTotals();
+        try (SalesIO io = log.openWithoutFileKey(false, true)) {
+            Totals totals = io.readResumable(Totals::new);
+            assertEquals(expected.toString(), totals.toString());
+            assertEquals(expected.rows, totals.seen);
+        }
+    }
+
+    private Totals fullTotals() throws IOException {
+        Totals totals = new Totals();
+        try (SalesIO io = log.open(false, false)) {
+            io.read(totals);
+        }
+        return totals;
+    }
+
+    static class Totals implements ResumableSalesVisitor {
+
+        long rows, quantity, revenue, cash, staffBill;
+        // a mentett állapot után beolvasott sorok
+        long seen;
+
+        @Override
+        public String cacheKey() {
+            return "test-totals";
+        }
+
+        @Override
+        public void save(DataOutputStream out) throws IOException {
+            out.writeLong(rows);
+            out.writeLong(quantity);
+            out.writeLong(revenue);
+            out.writeLong(cash);
+            out.writeLong(staffBill);
+        }
+
+        @Override
+        public void restore(DataInputStream in) throws IOException {
+            rows = in.readLong();
+            quantity = in.readLong();
+            revenue = in.readLong();
+            cash = in.readLong();
+            staffBill = in.readLong();
+        }
+
+        @Override
+        public void beginPeriod(SellingPeriod period, String comment) {
+            rows++;
+            seen++;
+            cash += period.openCash;
+        }
+
+        @Override
+        public void sale(Sale sale) {
+            rows++;
+            seen++;
+            quantity += sale.quantity;
+            if (sale.billID instanceof Sale.StaffBillID)
+                staffBill += (long) sale.quantity * sale.pricePerProduct;
+            else
+                revenue += (long) sale.quantity * sale.pricePerProduct;
+        }
+
+        @Override
+        public void endPeriod(SellingPeriod period, String comment) {
+            rows++;
+            seen++;
+            cash += period.closeCash;
+        }
+
+        @Override
+        public void modifyCash(String username, int cash, int creditCardAmount) {
+            rows++;
+            seen++;
+            this.cash += cash;
+        }
+
+        @Override
+        public void staffBillPay(Sale.StaffBillID bill, String administrator, int money, Instant timestamp) {
+            rows++;
+            seen++;
+            staffBill -= money;
+        }
+
+        @Override
+        public String toString() {
+            return rows + " " + quantity + " " + revenue + " " + cash + " " + staffBill;
+        }
+    }
+}
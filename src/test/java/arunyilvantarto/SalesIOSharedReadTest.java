@@ -0,0 +1,125 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Article;
+import arunyilvantarto.domain.Sale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesIO#readShared} visitorai egy olvasáson osztoznak, és a futó olvasásba beszálló összesítő is a teljes
+ * fájlt látja.
+ */
+public class SalesIOSharedReadTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Budapest");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+        // kb. 2 MiB, így a sales.tsv több darabra esik, és van hova beszállni
+        log.append(1500, true);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void visitorsScheduledTogetherShareOneRead() throws Exception {
+        List<String> expected = log.tsvTrace();
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            SalesTestLog.Trace first = new SalesTestLog.Trace(), second = new SalesTestLog.Trace();
+            Counter counter = new Counter();
+            CompletableFuture<Void> done = io.readShared(first, executor);
+            assertSame(done, io.readShared(second, executor));
+            assertSame(done, io.readShared(counter, executor));
+            done.get(30, TimeUnit.SECONDS);
+            assertEquals(expected, first.rows);
+            assertEquals(expected, second.rows);
+            assertEquals(1, counter.begins);
+            assertEquals(1, counter.ends);
+        }
+    }
+
+    @Test
+    public void combinableVisitorJoinsRunningRead() throws Exception {
+        SalesDailyRollups expected = new SalesDailyRollups(ZONE);
+        List<String> expectedTrace;
+        try (SalesIO io = log.open(false, false)) {
+            io.read(expected);
+            expectedTrace = SalesTestLog.trace(io, false);
+        }
+
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            SalesDailyRollups late = new SalesDailyRollups(ZONE);
+            SalesTestLog.Trace lateTrace = new SalesTestLog.Trace();
+            List<CompletableFuture<Void>> joined = new ArrayList<>();
+            // az olvasás közepén jelentkezik két újabb visitor
+            SalesTestLog.Trace first = new SalesTestLog.Trace() {
+                int sales;
+
+                @Override
+                public void sale(Sale sale) {
+                    super.sale(sale);
+                    if (++sales == 5000) {
+                        joined.add(io.readShared(late, executor));
+                        joined.add(io.readShared(lateTrace, executor));
+                    }
+                }
+            };
+            CompletableFuture<Void> done = io.readShared(first, executor);
+            done.get(30, TimeUnit.SECONDS);
+            assertEquals(2, joined.size());
+            // az összesítő még ebben az olvasásban megkapta a teljes fájlt, a sorrendfüggő visitor a következőben
+            joined.get(0).get(30, TimeUnit.SECONDS);
+            assertNotSame(done, joined.get(1));
+            joined.get(1).get(30, TimeUnit.SECONDS);
+
+            assertEquals(expectedTrace, first.rows);
+            assertEquals(expectedTrace, lateTrace.rows);
+            LocalDate from = LocalDate.of(2020, 1, 1), to = LocalDate.of(2040, 1, 1);
+            for (Article article : log.data.articles)
+                assertEquals(expected.article(article.name, from, to), late.article(article.name, from, to));
+        }
+    }
+
+    private static class Counter implements SalesVisitor {
+
+        int begins, ends;
+
+        @Override
+        public void begin() {
+            begins++;
+        }
+
+        @Override
+        public void end() {
+            ends++;
+        }
+    }
+}
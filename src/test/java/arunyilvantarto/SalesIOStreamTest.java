@@ -0,0 +1,116 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesIO#stream()} rekordjai: a fogyasztó által összeillesztve ugyanazt kell adniuk, mint a visitoros
+ * olvasásnak, sorosan és párhuzamosan, a szegmensekből és a sales.tsv-ből is.
+ */
+public class SalesIOStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+        log.append(80, false);
+    }
+
+    @Test
+    public void streamMatchesRead() throws IOException {
+        List<String> expected = log.tsvTrace();
+        try (SalesIO io = log.open(true, false)) {
+            assertEquals(expected, trace(io.stream()));
+            assertEquals(expected, trace(io.stream().parallel()));
+
+            io.compact();
+            log.append(io, 10, true);
+            expected = SalesTestLog.trace(io, false);
+            assertEquals(expected, trace(io.stream()));
+            assertEquals(expected, trace(io.stream().parallel()));
+        }
+    }
+
+    @Test
+    public void streamSeesRowsUpToItsCreation() throws IOException {
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            List<String> expected = SalesTestLog.trace(io, false);
+            try (Stream<SalesRecord> records = io.stream()) {
+                log.append(io, 2, false);
+                assertEquals(expected, trace(records));
+            }
+        }
+    }
+
+    @Test
+    public void filteredParallelStreamKeepsOrder() throws IOException {
+        try (SalesIO io = log.open(true, false)) {
+            io.compact();
+            List<Integer> expected = new ArrayList<>();
+            io.read(new SalesVisitor() {
+                @Override
+                public void sale(Sale sale) {
+                    if (sale.billID instanceof Sale.StaffBillID)
+                        expected.add(sale.paymentID);
+                }
+            });
+            try (Stream<SalesRecord> records = io.stream().parallel()) {
+                assertEquals(expected, records.
+                        filter(r -> r instanceof SalesRecord.SaleRecord).
+                        map(r -> ((SalesRecord.SaleRecord) r).sale()).
+                        filter(sale -> sale.billID instanceof Sale.StaffBillID).
+                        map(sale -> sale.paymentID).
+                        toList());
+            }
+        }
+    }
+
+    /**
+     * A rekordokat sorrendben egy {@link SalesTestLog.Trace}-nek adja, a periódusok eladásait összeillesztve.
+     */
+    private static List<String> trace(Stream<SalesRecord> records) {
+        SalesTestLog.Trace trace = new SalesTestLog.Trace();
+        List<Sale> periodSales = new ArrayList<>();
+        records.forEachOrdered(record -> {
+            switch (record) {
+                case SalesRecord.PeriodOpen o -> {
+                    periodSales.clear();
+                    trace.beginPeriod(o.period(), o.comment());
+                }
+                case SalesRecord.SaleRecord s -> {
+                    periodSales.add(s.sale());
+                    trace.sale(s.sale());
+                }
+                case SalesRecord.PeriodClose c -> {
+                    SellingPeriod period = new SellingPeriod();
+                    period.id = c.periodID();
+                    period.endTime = c.endTime();
+                    period.closeCash = c.closeCash();
+                    period.closeCreditCardAmount = c.closeCreditCardAmount();
+                    period.sales = new ArrayList<>(periodSales);
+                    trace.endPeriod(period, c.comment());
+                }
+                case SalesRecord.CashModification m -> trace.modifyCash(m.username(), m.cash(), m.creditCardAmount());
+                case SalesRecord.StaffBillPayment p ->
+                        trace.staffBillPay(p.bill(), p.administrator(), p.money(), p.timestamp());
+            }
+        });
+        return trace.rows;
+    }
+}
@@ -0,0 +1,121 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+import arunyilvantarto.events.SellingEvent;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesLedger} tárolási módjai: a {@link SalesLedger.History} mindegyikével ugyanazt kell adnia, mint a
+ * sales.tsv beolvasásának, a betöltés után alkalmazott eseményekkel együtt is.
+ */
+public class SalesLedgerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+        log.append(30, true);
+    }
+
+    @Test
+    public void historiesMatchTsv() throws IOException {
+        try (SalesIO io = log.open(false, false)) {
+            List<String> expectedBill = staffBillTrace(io);
+            List<String> expectedPeriods = null;
+            for (SalesLedger.History history : SalesLedger.History.values()) {
+                SalesLedger ledger = new SalesLedger(history);
+                ledger.load(io);
+                if (expectedPeriods == null)
+                    expectedPeriods = periodTraces(ledger);
+                assertEquals(history.name(), expectedPeriods, periodTraces(ledger));
+                assertEquals(history.name(), expectedBill, ledgerStaffBill(ledger));
+            }
+        }
+    }
+
+    @Test
+    public void writtenEventsMatchReload() throws Exception {
+        for (SalesLedger.History history : SalesLedger.History.values()) {
+            try (SalesIO io = log.open(false, false)) {
+                SalesLedger ledger = new SalesLedger(history);
+                ledger.load(io);
+                SalesIO.LastPeriod last = ledger.lastPeriod();
+                Sale sale = new Sale();
+                sale.timestamp = log.time();
+                sale.article = log.data.articles.get(0);
+                sale.seller = last.period().username;
+                sale.quantity = 2;
+                sale.pricePerProduct = sale.article.sellingPrice;
+                sale.billID = new Sale.StaffBillID("Nagy Péter");
+                sale.paymentID = last.lastPaymentID() + 1;
+                ledger.write(io, new SellingEvent.SaleEvent(sale)).get();
+                ledger.write(io, new SellingEvent.StaffBillPay(new Sale.StaffBillID("Nagy Péter"), "admin", 100)).
+                        get();
+
+                SalesLedger reloaded = new SalesLedger(history);
+                reloaded.load(io);
+                List<String> expected = withoutPaymentTimes(staffBillTrace(io));
+                assertEquals(history.name(), expected, withoutPaymentTimes(ledgerStaffBill(ledger)));
+                assertEquals(history.name(), expected, withoutPaymentTimes(ledgerStaffBill(reloaded)));
+                assertEquals(history.name(), periodTraces(reloaded), periodTraces(ledger));
+            }
+        }
+    }
+
+    /**
+     * A periódusok eladásai és bevétele szövegként.
+     */
+    private static List<String> periodTraces(SalesLedger ledger) {
+        List<String> rows = new ArrayList<>();
+        for (SellingPeriod period : ledger.periods()) {
+            SalesTestLog.Trace trace = new SalesTestLog.Trace();
+            SalesColumns.Cursor sales = ledger.periodSales(period);
+            while (sales.next())
+                trace.sale(sales.toSale());
+            rows.add(period.id + " " + ledger.revenue(period) + " " + trace.rows);
+        }
+        return rows;
+    }
+
+    private static List<String> ledgerStaffBill(SalesLedger ledger) {
+        SalesTestLog.Trace trace = new SalesTestLog.Trace();
+        ledger.visitStaffBill("Nagy Péter", trace);
+        return trace.rows;
+    }
+
+    /**
+     * @return a sales.tsv sorai közül a személyzeti számlát érintők
+     */
+    private static List<String> staffBillTrace(SalesIO io) {
+        SalesTestLog.Trace trace = new SalesTestLog.Trace() {
+            @Override
+            public void sale(Sale sale) {
+                if (sale.billID instanceof Sale.StaffBillID)
+                    super.sale(sale);
+            }
+        };
+        io.read(trace);
+        return trace.rows.stream().filter(row -> row.startsWith("S ") || row.startsWith("P ")).toList();
+    }
+
+    /**
+     * Az alkalmazott befizetés időpontja nem a kiírt, hanem az alkalmazáskori.
+     */
+    private static List<String> withoutPaymentTimes(List<String> rows) {
+        return rows.stream().map(row -> row.startsWith("P ") ? row.substring(0, row.lastIndexOf(' ')) : row).toList();
+    }
+}
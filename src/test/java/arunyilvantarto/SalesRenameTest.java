@@ -0,0 +1,118 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.User;
+import arunyilvantarto.events.RenameUserOp;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link RenameUserOp} a sales.tsv-t a rekordok streamjéből írja újra: minden sorban a régi név helyén az új kell,
+ * hogy álljon, a régi fájl megmarad, és a régi fájlhoz tartozó mellékfájlok nem maradhatnak meg.
+ */
+public class SalesRenameTest {
+
+    private static final String OLD_NAME = "Kovács Éva", NEW_NAME = "Szabó Annamária";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+    private Main main;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+        for (String name : new String[]{OLD_NAME, "Nagy Péter", "admin"}) {
+            User user = new User();
+            user.name = name;
+            user.role = User.Role.ADMIN;
+            log.data.addUser(user);
+        }
+        log.append(40, true);
+
+        main = new Main() {
+            @Override
+            public Path salesTsvPath() {
+                return log.tsv;
+            }
+
+            @Override
+            public Path salesCheckpointPath() {
+                return log.checkpoint;
+            }
+
+            @Override
+            public Path salesManifestPath() {
+                return log.manifest;
+            }
+
+            @Override
+            public Path salesTimeIndexPath() {
+                return log.timeIndex;
+            }
+
+            @Override
+            public Path salesArticleIndexPath() {
+                return log.articleIndex;
+            }
+
+            @Override
+            public Path salesAggregatesPath() {
+                return log.aggregates;
+            }
+        };
+        main.dataRoot = log.data;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        main.executor.shutdown();
+        if (main.salesIO != null)
+            main.salesIO.close();
+    }
+
+    @Test
+    public void renameRewritesEveryRow() throws Exception {
+        byte[] original = Files.readAllBytes(log.tsv);
+        List<String> expected = log.tsvTrace().stream().map(row -> row.replace(OLD_NAME, NEW_NAME)).toList();
+        SalesIOResumableTest.Totals expectedTotals = new SalesIOResumableTest.Totals();
+        main.salesIO = log.openAll();
+        main.salesIO.read(expectedTotals);
+        main.salesIO.compact();
+        main.salesIO.readResumable(SalesIOResumableTest.Totals::new);
+        main.salesIO.readArticle("Kávé", new SalesTestLog.Trace());
+
+        new RenameUserOp(OLD_NAME, NEW_NAME).execute(log.data, main);
+        main.executor.submit(() -> {
+        }).get();
+
+        assertEquals(NEW_NAME, log.data.user(NEW_NAME).name);
+        assertEquals(expected, SalesTestLog.trace(main.salesIO, false));
+        assertFalse(Files.readString(log.tsv).contains(OLD_NAME));
+        assertEquals(40, main.salesLedger.periods().size());
+
+        // a régi szegmensek és mentett állapotok nem maradtak meg, a folytatott olvasás elölről indul
+        assertFalse(Files.exists(log.manifest));
+        assertEquals(0, log.segmentFiles());
+        SalesIOResumableTest.Totals totals = main.salesIO.readResumable(SalesIOResumableTest.Totals::new);
+        assertEquals(expectedTotals.toString(), totals.toString());
+        assertEquals(expectedTotals.rows, totals.seen);
+
+        try (Stream<Path> files = Files.list(log.dir)) {
+            List<Path> backups = files.filter(p -> p.getFileName().toString().startsWith("sales_ren_")).toList();
+            assertEquals(1, backups.size());
+            assertArrayEquals(original, Files.readAllBytes(backups.get(0)));
+        }
+    }
+}
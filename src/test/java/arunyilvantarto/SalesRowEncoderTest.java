@@ -0,0 +1,149 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Sale;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A {@link SalesRowEncoder} kimenetét a régi, {@link String}-összefűzéses írás kimenetével veti össze.
+ */
+public class SalesRowEncoderTest {
+
+    private static final String[] ZONES = {"UTC", "Europe/Budapest", "America/St_Johns", "Asia/Kathmandu"};
+    private static final String[] NAMES = {"Túró Rudi", "Kávé", "NYITÁS", "ZÁRÁS", "KASSZAMÓDOSÍTÁS", "Kovács Éva",
+            "SZEMÉLYZETI SZÁMLA BEFIZETÉS", "emoji 🍫", null};
+
+    /**
+     * A régi SalesIO.writeImpl sora.
+     */
+    private static String oldRow(ZoneId zone, Instant instant, String productName, int quantity, int pricePerProduct,
+                                 String seller, Sale.BillID periodID, int creditCardAmount, int purchaseID,
+                                 String comment) {
+        LocalDateTime timestamp = LocalDateTime.ofInstant(instant, zone);
+        return timestamp + "\t" + productName + "\t" + quantity + "\t" + pricePerProduct + "\t" + seller + "\t" +
+                (periodID == null ? "-" : periodID.toString()) +
+                (creditCardAmount == -1 ? "\t-" : "\t" + creditCardAmount) +
+                (purchaseID == 0 ? "\t-" : "\t" + purchaseID) +
+                (comment == null ? "" : "\t" + comment) +
+                "\n";
+    }
+
+    private static String encoded(SalesRowEncoder encoder) {
+        ByteBuffer buffer = encoder.encoded();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @Test
+    public void randomRowsMatchOldFormat() {
+        Random random = new Random(0);
+        for (String zoneID : ZONES) {
+            ZoneId zone = ZoneId.of(zoneID);
+            SalesRowEncoder encoder = new SalesRowEncoder(zone);
+            for (int i = 0; i < 20000; i++) {
+                Instant instant = randomInstant(random);
+                String productName = NAMES[random.nextInt(NAMES.length)];
+                int quantity = randomInt(random);
+                int price = randomInt(random);
+                String seller = NAMES[random.nextInt(NAMES.length)];
+                Sale.BillID billID = switch (random.nextInt(4)) {
+                    case 0 -> null;
+                    case 1 -> new Sale.PeriodBillID(randomInt(random));
+                    case 2 -> new Sale.PeriodCardBillID(random.nextInt(1000));
+                    default -> new Sale.StaffBillID(NAMES[random.nextInt(NAMES.length - 1)]);
+                };
+                int creditCardAmount = random.nextBoolean() ? -1 : randomInt(random);
+                int purchaseID = random.nextBoolean() ? 0 : randomInt(random);
+                String comment = random.nextBoolean() ? null : NAMES[random.nextInt(NAMES.length - 1)];
+
+                encoder.clear();
+                encoder.row(instant, productName, quantity, price, seller, billID, creditCardAmount, purchaseID,
+                        comment);
+                assertEquals(oldRow(zone, instant, productName, quantity, price, seller, billID, creditCardAmount,
+                        purchaseID, comment), encoded(encoder));
+            }
+        }
+    }
+
+    @Test
+    public void timestampsAroundTransitionsMatchOldFormat() {
+        ZoneId zone = ZoneId.of("Europe/Budapest");
+        SalesRowEncoder encoder = new SalesRowEncoder(zone);
+        for (String day : new String[]{"2021-03-28T00:00:00Z", "2021-10-31T00:00:00Z", "2020-02-29T00:00:00Z",
+                "1999-12-31T22:00:00Z"}) {
+            Instant start = Instant.parse(day);
+            for (int minute = 0; minute < 6 * 60; minute += 7)
+                for (int nano : new int[]{0, 5_000_000, 120_000, 1, 999_999_999}) {
+                    Instant instant = start.plus(minute, ChronoUnit.MINUTES).plusNanos(nano);
+                    encoder.clear();
+                    encoder.row(instant, "Kávé", 1, 100, "u", new Sale.PeriodBillID(1), -1, 0, null);
+                    assertEquals(oldRow(zone, instant, "Kávé", 1, 100, "u", new Sale.PeriodBillID(1), -1, 0, null),
+                            encoded(encoder));
+                }
+        }
+    }
+
+    @Test
+    public void yearsOutsideFourDigitsMatchOldFormat() {
+        ZoneId zone = ZoneId.of("UTC");
+        SalesRowEncoder encoder = new SalesRowEncoder(zone);
+        for (String text : new String[]{"0999-12-31T23:59:59Z", "1000-01-01T00:00:00Z", "9999-12-31T23:59:59Z",
+                "+10000-01-01T00:00:00Z", "-0001-06-15T12:00:00.5Z"}) {
+            Instant instant = Instant.parse(text);
+            encoder.clear();
+            encoder.row(instant, "a", 1, 1, "b", null, 0, 1, null);
+            assertEquals(oldRow(zone, instant, "a", 1, 1, "b", null, 0, 1, null), encoded(encoder));
+        }
+    }
+
+    @Test
+    public void bufferGrowsAcrossRows() {
+        ZoneId zone = ZoneId.of("Europe/Budapest");
+        SalesRowEncoder encoder = new SalesRowEncoder(zone);
+        Random random = new Random(1);
+        StringBuilder expected = new StringBuilder(
+                "Időpont\tTermék\tMennyiség\tTermékenkénti ár\tEladó\tPeriódusazonosító vagy személynév\n");
+        encoder.text(expected.toString());
+        String longName = "Ő".repeat(5000);
+        for (int i = 0; i < 500; i++) {
+            Instant instant = randomInstant(random);
+            String name = i % 100 == 0 ? longName : NAMES[random.nextInt(NAMES.length)];
+            encoder.row(instant, name, i, -i, "u", new Sale.StaffBillID("u"), i, i, "megjegyzés " + i);
+            expected.append(oldRow(zone, instant, name, i, -i, "u", new Sale.StaffBillID("u"), i, i,
+                    "megjegyzés " + i));
+        }
+        assertEquals(expected.toString(), encoded(encoder));
+    }
+
+    private static Instant randomInstant(Random random) {
+        long second = Instant.parse("1990-01-01T00:00:00Z").getEpochSecond() + random.nextInt(50 * 365 * 86400);
+        int nano = switch (random.nextInt(5)) {
+            case 0 -> 0;
+            case 1 -> random.nextInt(1000) * 1000_000;
+            case 2 -> random.nextInt(1000_000) * 1000;
+            default -> random.nextInt(1000_000_000);
+        };
+        if (random.nextInt(4) == 0)
+            second -= second % 60;
+        return Instant.ofEpochSecond(second, nano);
+    }
+
+    private static int randomInt(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> random.nextInt(100);
+            case 1 -> -random.nextInt(100_000);
+            case 2 -> random.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            default -> random.nextInt();
+        };
+    }
+}
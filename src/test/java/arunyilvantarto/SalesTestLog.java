@@ -0,0 +1,216 @@
+package arunyilvantarto;
+
+import arunyilvantarto.domain.Article;
+import arunyilvantarto.domain.DataRoot;
+import arunyilvantarto.domain.Sale;
+import arunyilvantarto.domain.SellingPeriod;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Egy ideiglenes könyvtárban generált sales.tsv és mellékfájljai a tesztekhez. Kétnaponta egy periódust ír, így a
+ * periódusok több hónapba, tehát több szegmensbe esnek.
+ */
+class SalesTestLog {
+
+    final DataRoot data = new DataRoot();
+    final Path dir, tsv, checkpoint, manifest, timeIndex, articleIndex, aggregates;
+
+    private int nextPeriodID = 1, nextPaymentID = 1;
+    private Instant time = Instant.parse("2021-01-04T07:00:00Z");
+    private SellingPeriod openPeriod;
+
+    SalesTestLog(Path dir) throws IOException {
+        for (String name : new String[]{"Kávé", "Túró Rudi", "Pogácsa"}) {
+            Article article = new Article();
+            article.name = name;
+            article.sellingPrice = 100 + name.length();
+            data.addArticle(article);
+        }
+        this.dir = dir;
+        tsv = dir.resolve("sales.tsv");
+        checkpoint = dir.resolve("sales.state");
+        manifest = dir.resolve("sales.manifest");
+        timeIndex = dir.resolve("sales.idx");
+        articleIndex = dir.resolve("sales.articles");
+        aggregates = Files.createDirectory(dir.resolve("sales.aggregates"));
+        try (SalesIO io = new SalesIO(data, FileChannel.open(tsv, READ, WRITE, CREATE_NEW))) {
+            io.begin();
+        }
+    }
+
+    SalesIO open(boolean segments, boolean resumable) throws IOException {
+        return new SalesIO(data, tsv, FileChannel.open(tsv, READ, WRITE), checkpoint, segments ? manifest : null,
+                resumable ? aggregates : null, WritePolicy.OS_BUFFERED);
+    }
+
+    /**
+     * Mint az {@link #open}, de a sales.tsv fájlazonosítója nélkül, mint Windowson.
+     */
+    SalesIO openWithoutFileKey(boolean segments, boolean resumable) throws IOException {
+        return new SalesIO(data, null, FileChannel.open(tsv, READ, WRITE), checkpoint, segments ? manifest : null,
+                resumable ? aggregates : null, WritePolicy.OS_BUFFERED);
+    }
+
+    /**
+     * Az összes mellékfájllal.
+     */
+    SalesIO openAll() throws IOException {
+        return new SalesIO(data, tsv, FileChannel.open(tsv, READ, WRITE), checkpoint, manifest, timeIndex,
+                articleIndex, aggregates, WritePolicy.OS_BUFFERED);
+    }
+
+    /**
+     * Szegmensek nélkül, az időpont- és a termékindexszel.
+     */
+    SalesIO openIndexed() throws IOException {
+        return new SalesIO(data, tsv, FileChannel.open(tsv, READ, WRITE), checkpoint, null, timeIndex, articleIndex,
+                null, WritePolicy.OS_BUFFERED);
+    }
+
+    void append(int periods, boolean leaveLastOpen) throws IOException {
+        try (SalesIO io = open(false, false)) {
+            append(io, periods, leaveLastOpen);
+        }
+    }
+
+    void append(SalesIO io, int periods, boolean leaveLastOpen) {
+        for (int i = 0; i < periods; i++) {
+            if (openPeriod == null) {
+                openPeriod = new SellingPeriod();
+                openPeriod.id = nextPeriodID++;
+                openPeriod.username = "Kovács Éva";
+                openPeriod.beginTime = time;
+                openPeriod.openCash = 10000;
+                openPeriod.sales = new ArrayList<>();
+                io.beginPeriod(openPeriod, i % 3 == 0 ? "nyitó megjegyzés" : null);
+            }
+            for (int n = 0; n < 12; n++) {
+                time = time.plusSeconds(600);
+                Sale sale = new Sale();
+                sale.timestamp = time;
+                sale.article = data.articles.get(n % data.articles.size());
+                sale.seller = openPeriod.username;
+                sale.quantity = n == 11 ? -1 : 1 + n % 3;
+                sale.pricePerProduct = sale.article.sellingPrice;
+                sale.billID = n % 5 == 0 ? new Sale.StaffBillID("Nagy Péter") :
+                        n % 4 == 0 ? new Sale.PeriodCardBillID(openPeriod.id) :
+                                new Sale.PeriodBillID(openPeriod.id);
+                sale.paymentID = nextPaymentID++;
+                io.sale(sale);
+            }
+            io.modifyCash(openPeriod.username, 500, 0);
+            if (i == periods - 1 && leaveLastOpen)
+                break;
+            openPeriod.endTime = time.plusSeconds(60);
+            openPeriod.closeCash = 12000;
+            openPeriod.closeCreditCardAmount = 300;
+            io.endPeriod(openPeriod, null);
+            io.staffBillPay(new Sale.StaffBillID("Nagy Péter"), "admin", 250);
+            openPeriod = null;
+            time = time.plus(Duration.ofDays(2));
+        }
+    }
+
+    /**
+     * A következő írandó sor időpontja.
+     */
+    Instant time() {
+        return time;
+    }
+
+    List<String> tsvTrace() throws IOException {
+        try (SalesIO io = open(false, false)) {
+            return trace(io, false);
+        }
+    }
+
+    static List<String> trace(SalesIO io, boolean parallel) {
+        Trace trace = new Trace();
+        if (parallel)
+            io.readParallel(trace);
+        else
+            io.read(trace);
+        return trace.rows;
+    }
+
+    /**
+     * @return a {@link Trace} sorai közül a [from, to) intervallumba eső eladások
+     */
+    static List<String> salesBetween(List<String> rows, Instant from, Instant to) {
+        return rows.stream().filter(row -> {
+            if (!row.startsWith("S "))
+                return false;
+            Instant time = Instant.parse(row.split(" ")[1]);
+            return !time.isBefore(from) && time.isBefore(to);
+        }).toList();
+    }
+
+    long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("sales-")).count();
+        }
+    }
+
+    /**
+     * Egy korai eladás mennyiségét átírja, ugyanolyan hosszan, egy új fájlba, ami a sales.tsv helyére kerül.
+     */
+    void rewriteEarlyQuantity() throws IOException {
+        String text = Files.readString(tsv, UTF_8);
+        int row = text.indexOf("\tKávé\t1\t");
+        if (row == -1)
+            throw new IllegalStateException("no row to rewrite");
+        Path rewritten = tsv.resolveSibling("sales.tsv.new");
+        Files.writeString(rewritten, text.substring(0, row) + "\tKávé\t7\t" + text.substring(row + 8), UTF_8);
+        Files.move(rewritten, tsv, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A visitornak adott sorok szövegként, az összehasonlításhoz.
+     */
+    static class Trace implements SalesVisitor {
+
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void beginPeriod(SellingPeriod period, String comment) {
+            rows.add("B " + period.id + " " + period.username + " " + period.beginTime + " " + period.openCash + " " +
+                    comment);
+        }
+
+        @Override
+        public void sale(Sale sale) {
+            rows.add("S " + sale.timestamp + " " + (sale.article == null ? null : sale.article.name) + " " +
+                    sale.quantity + " " + sale.pricePerProduct + " " + sale.seller + " " + sale.billID + " " +
+                    sale.paymentID);
+        }
+
+        @Override
+        public void endPeriod(SellingPeriod period, String comment) {
+            rows.add("E " + period.id + " " + period.endTime + " " + period.closeCash + " " +
+                    period.closeCreditCardAmount + " " + period.sales.size() + " " + comment);
+        }
+
+        @Override
+        public void modifyCash(String username, int cash, int creditCardAmount) {
+            rows.add("M " + username + " " + cash + " " + creditCardAmount);
+        }
+
+        @Override
+        public void staffBillPay(Sale.StaffBillID bill, String administrator, int money, Instant timestamp) {
+            rows.add("P " + bill + " " + administrator + " " + money + " " + timestamp);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package arunyilvantarto;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesIO#read(SalesVisitor, Instant, Instant)} a {@link SalesTimeIndex} alapján csak az időszak környékét
+ * olvassa, de az időszak minden eladását megkapja, akkor is, ha a mentett index elavult vagy sérült.
+ */
+public class SalesTimeIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SalesTestLog log;
+    private final Instant from = Instant.parse("2021-03-10T00:00:00Z"), to = Instant.parse("2021-03-20T00:00:00Z");
+
+    @Before
+    public void setUp() throws IOException {
+        log = new SalesTestLog(folder.getRoot().toPath());
+        log.append(300, false);
+    }
+
+    @Test
+    public void rangeReadMatchesFullRead() throws IOException {
+        List<String> expected = SalesTestLog.salesBetween(log.tsvTrace(), from, to);
+        assertFalse(expected.isEmpty());
+        try (SalesIO io = log.openIndexed()) {
+            assertRangeRead(io, expected);
+        }
+        assertTrue(Files.size(log.timeIndex) > 4);
+
+        // a mentett indexet használja, és a közben írt sorokkal kiegészíti
+        try (SalesIO io = log.openIndexed()) {
+            assertRangeRead(io, expected);
+            log.append(io, 20, false);
+            Instant later = log.time();
+            List<String> all = SalesTestLog.trace(io, false);
+            SalesTestLog.Trace tail = new SalesTestLog.Trace();
+            io.read(tail, later.minusSeconds(86400 * 10), later);
+            assertEquals(SalesTestLog.salesBetween(all, later.minusSeconds(86400 * 10), later),
+                    SalesTestLog.salesBetween(tail.rows, later.minusSeconds(86400 * 10), later));
+            assertTrue(tail.rows.size() < 3 * SalesTimeIndex.ROWS_PER_ENTRY);
+        }
+    }
+
+    @Test
+    public void damagedIndexIsRebuilt() throws IOException {
+        List<String> expected = SalesTestLog.salesBetween(log.tsvTrace(), from, to);
+        try (SalesIO io = log.openIndexed()) {
+            assertRangeRead(io, expected);
+        }
+        // félbemaradt hozzáfűzés és egy rossz helyre mutató bejegyzés
+        try (FileChannel channel = FileChannel.open(log.timeIndex, WRITE)) {
+            channel.truncate(channel.size() - 5);
+            channel.write(ByteBuffer.allocate(8).putLong(0, 12345), 4 + 16 + 8);
+        }
+        try (SalesIO io = log.openIndexed()) {
+            assertRangeRead(io, expected);
+        }
+        try (SalesIO io = log.openIndexed()) {
+            assertRangeRead(io, expected);
+        }
+    }
+
+    private void assertRangeRead(SalesIO io, List<String> expected) {
+        SalesTestLog.Trace range = new SalesTestLog.Trace();
+        io.read(range, from, to);
+        assertEquals(expected, SalesTestLog.salesBetween(range.rows, from, to));
+        // az index kb. 256 soronként ugrik, így az időszak előtt és után legfeljebb egy-egy ilyen szakaszt olvas
+        assertTrue(range.rows.size() < 3 * SalesTimeIndex.ROWS_PER_ENTRY);
+    }
+}
@@ -0,0 +1,92 @@
+package arunyilvantarto;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A {@link SalesTimestampDecoder}-t a {@code LocalDateTime.parse(..).atZone(zone).toInstant()}-tel veti össze.
+ */
+public class SalesTimestampDecoderTest {
+
+    private static final String[] FRACTIONS = {"", ".000", ".050", ".123", ".000100", ".123456", ".000000001",
+            ".123456789"};
+
+    private static Instant decode(SalesTimestampDecoder decoder, String text) {
+        // a sor elején és végén más mezők is vannak
+        ByteBuffer buffer = ByteBuffer.wrap(("x\t" + text + "\ty").getBytes(ISO_8859_1));
+        return decoder.decode(buffer, 2, 2 + text.length());
+    }
+
+    private static List<String> day(LocalDate date, int minuteStep) {
+        List<String> texts = new ArrayList<>();
+        for (int minute = 0; minute < 24 * 60; minute += minuteStep) {
+            String hhmm = date + "T" + String.format("%02d:%02d", minute / 60, minute % 60);
+            texts.add(hhmm);
+            for (String seconds : new String[]{":00", ":07", ":59"})
+                for (String fraction : FRACTIONS)
+                    texts.add(hhmm + seconds + fraction);
+        }
+        return texts;
+    }
+
+    private static void assertDecodes(ZoneId zone, List<String> texts) {
+        SalesTimestampDecoder decoder = new SalesTimestampDecoder(zone);
+        for (String text : texts)
+            assertEquals(text, LocalDateTime.parse(text).atZone(zone).toInstant(), decode(decoder, text));
+    }
+
+    @Test
+    public void daylightSavingDays() {
+        for (String zoneID : new String[]{"Europe/Budapest", "America/New_York", "Australia/Lord_Howe"}) {
+            ZoneId zone = ZoneId.of(zoneID);
+            List<String> texts = new ArrayList<>();
+            for (var t : zone.getRules().getTransitions())
+                if (t.getInstant().isAfter(Instant.parse("2019-01-01T00:00:00Z")) &&
+                        t.getInstant().isBefore(Instant.parse("2023-01-01T00:00:00Z"))) {
+                    LocalDate date = t.getDateTimeBefore().toLocalDate();
+                    texts.addAll(day(date.minusDays(1), 5));
+                    texts.addAll(day(date, 5));
+                    texts.addAll(day(date.plusDays(1), 5));
+                }
+            for (var t : zone.getRules().getTransitionRules())
+                texts.addAll(day(t.createTransition(2030).getDateTimeBefore().toLocalDate(), 1));
+            assertDecodes(zone, texts);
+        }
+    }
+
+    @Test
+    public void shuffledDaysAndFractions() {
+        Random random = new Random(0);
+        for (String zoneID : new String[]{"UTC", "Europe/Budapest", "Asia/Kathmandu"}) {
+            List<String> texts = new ArrayList<>();
+            for (int i = 0; i < 50000; i++) {
+                LocalDateTime t = LocalDateTime.of(1970 + random.nextInt(80), 1 + random.nextInt(12), 1, 0, 0).
+                        plusDays(random.nextInt(31)).plusSeconds(random.nextInt(86400));
+                String text = t.toString().substring(0, 16);
+                if (random.nextBoolean())
+                    text += String.format(":%02d", t.getSecond()) + FRACTIONS[random.nextInt(FRACTIONS.length)];
+                texts.add(text);
+            }
+            Collections.shuffle(texts, random);
+            assertDecodes(ZoneId.of(zoneID), texts);
+        }
+    }
+
+    @Test
+    public void irregularTextsFallBackToParse() {
+        assertDecodes(ZoneId.of("Europe/Budapest"), List.of("0999-01-01T00:00", "2020-02-29T12:00", "1900-03-01T01:02:03",
+                "+10000-01-01T00:00", "2021-03-28T02:30:00.5", "2021-10-31T02:30:00.1234"));
+    }
+}
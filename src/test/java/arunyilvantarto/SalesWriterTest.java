@@ -0,0 +1,234 @@
+package arunyilvantarto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SalesWriter} futurejei csak a sorok lemezre kerülése után teljesülnek, és egy sikertelen írás után a fájl
+ * az utolsó elmentett sornál ér véget.
+ */
+public class SalesWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private FailingChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.getRoot().toPath().resolve("sales.tsv");
+        channel = new FailingChannel(FileChannel.open(file, READ, WRITE, CREATE_NEW));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    private static ByteBuffer row(int i) {
+        return ByteBuffer.wrap(("sor " + i + "\n").getBytes(UTF_8));
+    }
+
+    @Test
+    public void groupCommitWaitsForFullBatch() throws Exception {
+        try (SalesWriter writer = new SalesWriter(channel, WritePolicy.groupCommit(3, 60_000))) {
+            CompletableFuture<Void> first = writer.append(row(1));
+            CompletableFuture<Void> second = writer.append(row(2));
+            Thread.sleep(100);
+            assertFalse(first.isDone() || second.isDone());
+            assertEquals(0, Files.size(file));
+
+            CompletableFuture<Void> third = writer.append(row(3));
+            CompletableFuture.allOf(first, second, third).get(10, TimeUnit.SECONDS);
+            assertEquals(1, channel.forces);
+            assertEquals("sor 1\nsor 2\nsor 3\n", Files.readString(file, UTF_8));
+        }
+    }
+
+    @Test
+    public void groupCommitWaitsAtMostMaxDelay() throws Exception {
+        try (SalesWriter writer = new SalesWriter(channel, WritePolicy.groupCommit(1000, 50))) {
+            writer.append(row(1)).get(10, TimeUnit.SECONDS);
+            assertEquals(1, channel.forces);
+            assertEquals("sor 1\n", Files.readString(file, UTF_8));
+        }
+    }
+
+    @Test
+    public void closeWritesPendingRows() throws Exception {
+        CompletableFuture<Void> pending;
+        try (SalesWriter writer = new SalesWriter(channel, WritePolicy.groupCommit(1000, 60_000))) {
+            pending = writer.append(row(1));
+        }
+        assertTrue(pending.isDone());
+        pending.get();
+        assertEquals("sor 1\n", Files.readString(file, UTF_8));
+    }
+
+    @Test
+    public void failedForceTruncatesAndRejectsLaterRows() throws Exception {
+        channel.failingForce = 2;
+        try (SalesWriter writer = new SalesWriter(channel, WritePolicy.FSYNC_EACH_ROW)) {
+            CompletableFuture<Void> first = writer.append(row(1));
+            first.get(10, TimeUnit.SECONDS);
+            CompletableFuture<Void> second = writer.append(row(2));
+            CompletableFuture<Void> third = writer.append(row(3));
+            assertFailed(second);
+            assertFailed(third);
+            assertNotNull(writer.failure());
+            assertFailed(writer.append(row(4)));
+        }
+        assertEquals("sor 1\n", Files.readString(file, UTF_8));
+    }
+
+    @Test
+    public void failedWriteTruncatesOsBuffered() throws Exception {
+        channel.failingWrite = 2;
+        try (SalesWriter writer = new SalesWriter(channel, WritePolicy.OS_BUFFERED)) {
+            writer.append(row(1)).get();
+            assertFailed(writer.append(row(2)));
+            assertFailed(writer.append(row(3)));
+        }
+        assertEquals("sor 1\n", Files.readString(file, UTF_8));
+    }
+
+    private static void assertFailed(CompletableFuture<Void> future) throws InterruptedException, TimeoutException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("row written despite an earlier failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * A megadott sorszámú írást félbehagyja, illetve a megadott sorszámú fsync-et elrontja, a többit továbbadja.
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel delegate;
+        int failingWrite, failingForce;
+        int writes, forces;
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (++writes == failingWrite) {
+                // a sor fele már kikerül, mint egy betelt lemezen
+                ByteBuffer half = src.slice().limit(src.remaining() / 2);
+                delegate.write(half);
+                throw new IOException("disk full");
+            }
+            return delegate.write(src);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (++forces == failingForce)
+                throw new IOException("fsync failed");
+            delegate.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package arunyilvantarto.ui;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link SearchIndex} találatainak egy egyszerű, minden elemen végigmenő kereséssel kell egyezniük, gépelés közben
+ * (az előző találatokból szűkítve) és az elemek módosítása, törlése után is.
+ */
+public class SearchIndexTest {
+
+    private static final String[] SYLLABLES =
+            {"ká", "vé", "tú", "ró", "ru", "di", "po", "gá", "csa", "Ma", "Ré", "tej"};
+
+    private final List<Item> items = new ArrayList<>();
+    private SearchIndex<Item> index;
+
+    @Before
+    public void setUp() {
+        index = new SearchIndex<>(item -> item.code == null ? List.of(item.name) : List.of(item.name, item.code));
+        for (int i = 0; i < 300; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int n = i; n > 0 || name.length() == 0; n /= SYLLABLES.length)
+                name.append(SYLLABLES[n % SYLLABLES.length]);
+            items.add(new Item(name + (i % 7 == 0 ? " Rudi" : ""), i % 5 == 0 ? "59" + i : null));
+        }
+        index.addAll(items);
+    }
+
+    @Test
+    public void typingMatchesLinearScan() throws Exception {
+        for (String word : new String[]{"Kávé", "túró rudi", "rudi", "csa", "599", "MaRé", "xyz", "á"})
+            for (int end = 0; end <= word.length(); end++)
+                assertSearch(word.substring(0, end), item -> true);
+        assertSearch("ká", item -> item.code != null);
+    }
+
+    @Test
+    public void updatesAndRemovalsAreSeen() throws Exception {
+        assertSearch("ká", item -> true);
+        Item renamed = items.get(1);
+        renamed.name = "Pogácsa";
+        index.update(renamed);
+        // a gépelés folytatása sem adhatja vissza a módosítás előtti találatokat
+        assertSearch("káv", item -> true);
+        assertSearch("pogá", item -> true);
+
+        Item removed = items.remove(2);
+        index.remove(removed);
+        assertSearch("pogá", item -> true);
+        assertSearch("", item -> true);
+
+        Item added = new Item("Pogácsa", null);
+        items.add(added);
+        index.add(added);
+        assertSearch("pogác", item -> true);
+        assertSearch("", item -> true);
+    }
+
+    private void assertSearch(String query, Predicate<Item> filter) throws Exception {
+        CompletableFuture<List<Item>> result = new CompletableFuture<>();
+        index.execute(() -> result.complete(index.search(query, filter)));
+        assertEquals(query, linearSearch(query, filter), result.get(10, TimeUnit.SECONDS));
+    }
+
+    private List<Item> linearSearch(String query, Predicate<Item> filter) {
+        String q = query.toLowerCase();
+        List<Item> prefixMatches = new ArrayList<>(), substringMatches = new ArrayList<>();
+        for (Item item : items) {
+            List<String> names = item.code == null ? List.of(item.name) : List.of(item.name, item.code);
+            if (names.stream().anyMatch(n -> n.toLowerCase().startsWith(q)))
+                prefixMatches.add(item);
+            else if (names.stream().anyMatch(n -> n.toLowerCase().contains(q)))
+                substringMatches.add(item);
+        }
+        prefixMatches.addAll(substringMatches);
+        prefixMatches.removeIf(filter.negate());
+        return prefixMatches;
+    }
+
+    private static class Item {
+
+        String name;
+        final String code;
+
+        Item(String name, String code) {
+            this.name = name;
+            this.code = code;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package arunyilvantarto;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link SalesDelimiterScanner} a jdk.incubator.vector modullal. A {@link SalesRow} reflexióval tölti be, ha a modul
+ * be van töltve ({@code --add-modules jdk.incubator.vector}) és az {@code arunyilvantarto.vectorTokenizer} értéke
+ * {@code true}.
+ */
+final class SalesVectorScanner implements SalesDelimiterScanner {
+
+    // 16-64 bájt a processzortól függően
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    @Override
+    public int width() {
+        return SPECIES.length();
+    }
+
+    /**
+     * A maszk {@code toLong()}-ja JDK 17-ben nincs gépi kódra fordítva, ezért megy a maszk bájtvektorként, long
+     * sávokra bontva.
+     */
+    @Override
+    public void delimiters(ByteBuffer buffer, int position, long[] words) {
+        ByteVector v = ByteVector.fromByteBuffer(SPECIES, buffer, position, ByteOrder.nativeOrder());
+        v.eq((byte) '\t').or(v.eq((byte) '\n')).toVector().reinterpretAsLongs().and(HIGH_BITS).intoArray(words, 0);
+    }
+}